@@ -0,0 +1,167 @@
+/*
+ * Objectify. Copyright (c) 2011-2016. Kai Wolf. All rights reserved.
+ * Redistribution and use in source form with or without modification is not permitted.
+ */
+
+package de.hsrm.objectify.rendering;
+
+import android.renderscript.Allocation;
+import android.test.InstrumentationTestCase;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import de.hsrm.objectify.reconstruction.NormalEncoder;
+import de.hsrm.objectify.reconstruction.RelaxationIntegrator;
+import de.hsrm.objectify.reconstruction.RowBands;
+
+/**
+ * Runs the RenderScript and the Java backend on the normals of a sphere and checks that
+ * both encode, preview and integrate them alike
+ */
+public class BackendConsistencyTest extends InstrumentationTestCase {
+    private static final int SIZE = 64;
+    private static final int BANDS = 2;
+    private static final int PREVIEW_SCALE = 2;
+    private static final int JACOBI_ITERATIONS = 3000;
+    private static final int SOR_ITERATIONS = 300;
+    private static final float SOR_OMEGA = 1.95f;
+    private ExecutorService mExecutor;
+    private RowBands mBands;
+    private RenderScriptBackend mRenderScript;
+    private float[] mRawNormals;
+    private int[] mMask;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mExecutor = Executors.newFixedThreadPool(BANDS);
+        mBands = new RowBands(mExecutor, BANDS);
+        mRenderScript =
+            new RenderScriptBackend(getInstrumentation().getTargetContext());
+
+        /* unit normals of a sphere in the center, the background faces the camera */
+        mRawNormals = new float[4 * SIZE * SIZE];
+        mMask = new int[SIZE * SIZE];
+        float radius = 0.4f * SIZE;
+        for (int y = 0; y < SIZE; y++) {
+            for (int x = 0; x < SIZE; x++) {
+                int i = y * SIZE + x;
+                float dx = (x - 0.5f * SIZE) / radius;
+                float dy = (y - 0.5f * SIZE) / radius;
+                float r2 = dx * dx + dy * dy;
+                if (r2 < 1.0f) {
+                    mRawNormals[4 * i] = dx;
+                    mRawNormals[4 * i + 1] = dy;
+                    mRawNormals[4 * i + 2] = (float) Math.sqrt(1.0f - r2);
+                    mMask[i] = 0xFFFFFFFF;
+                } else {
+                    mRawNormals[4 * i + 2] = 1.0f;
+                    mMask[i] = 0xFF000000;
+                }
+            }
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mRenderScript.destroy();
+        mExecutor.shutdown();
+        super.tearDown();
+    }
+
+    public void testEncodeMatches() {
+        float[] expected = javaNormals();
+        float[] actual = new float[expected.length];
+        Allocation normals = mRenderScript.encode(mRawNormals, mMask, SIZE, SIZE);
+        normals.copyTo(actual);
+        mRenderScript.recycle(normals);
+
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals("component " + i, expected[i], actual[i], 1e-3f);
+        }
+    }
+
+    public void testPreviewMatches() {
+        int[] expected =
+            new NormalEncoder(mBands).preview(javaNormals(), SIZE, SIZE, PREVIEW_SCALE);
+        Allocation normals = mRenderScript.encode(mRawNormals, mMask, SIZE, SIZE);
+        int[] actual = mRenderScript.preview(normals, SIZE, SIZE, PREVIEW_SCALE);
+        mRenderScript.recycle(normals);
+
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            /* the channels are truncated, rounding may differ by one */
+            for (int shift = 0; shift < 24; shift += 8) {
+                int e = (expected[i] >> shift) & 0xFF;
+                int a = (actual[i] >> shift) & 0xFF;
+                assertTrue("pixel " + i, Math.abs(e - a) <= 1);
+            }
+        }
+    }
+
+    public void testJacobiMatches() {
+        RelaxationIntegrator jacobi =
+            RelaxationIntegrator.jacobi(mBands, JACOBI_ITERATIONS);
+        float[] expected = jacobi.integrate(javaNormals(), SIZE, SIZE);
+        Allocation normals = mRenderScript.encode(mRawNormals, mMask, SIZE, SIZE);
+        float[] actual = mRenderScript.jacobi(normals, SIZE, SIZE, JACOBI_ITERATIONS);
+        mRenderScript.recycle(normals);
+
+        /* the kernel updates the heights in place, in the order the device schedules
+         * it, so it only agrees with plain Jacobi once both have converged */
+        assertHeightsMatch(expected, actual, 1e-2f);
+    }
+
+    public void testRedBlackMatches() {
+        RelaxationIntegrator sor =
+            RelaxationIntegrator.redBlack(mBands, SOR_ITERATIONS, SOR_OMEGA);
+        float[] expected = sor.integrate(javaNormals(), SIZE, SIZE);
+        Allocation normals = mRenderScript.encode(mRawNormals, mMask, SIZE, SIZE);
+        float[] actual = mRenderScript.redBlack(
+            normals, SIZE, SIZE, SOR_ITERATIONS, SOR_OMEGA, false);
+        mRenderScript.recycle(normals);
+
+        assertHeightsMatch(expected, actual, 1e-3f);
+    }
+
+    public void testRedBlackResidualsMatch() {
+        RelaxationIntegrator sor =
+            RelaxationIntegrator.redBlack(mBands, SOR_ITERATIONS, SOR_OMEGA);
+        sor.setTrace(true);
+        sor.integrate(javaNormals(), SIZE, SIZE);
+        Allocation normals = mRenderScript.encode(mRawNormals, mMask, SIZE, SIZE);
+        mRenderScript.redBlack(normals, SIZE, SIZE, SOR_ITERATIONS, SOR_OMEGA, true);
+        mRenderScript.recycle(normals);
+
+        /* both relative to the right-hand side, the first iterations are far from
+         * rounding differences */
+        float[] expected = sor.getResiduals();
+        float[] actual = mRenderScript.getResiduals();
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(expected[i], actual[i], 1e-3f * expected[i]);
+        }
+    }
+
+    private float[] javaNormals() {
+        float[] normals = new float[4 * SIZE * SIZE];
+        new NormalEncoder(mBands).encode(mRawNormals, mMask, SIZE, SIZE, normals);
+        return normals;
+    }
+
+    /**
+     * @param tolerance largest difference relative to the largest height
+     */
+    private static void assertHeightsMatch(float[] expected, float[] actual,
+        float tolerance) {
+        float range = 0.0f;
+        for (float h : expected) {
+            range = Math.max(range, Math.abs(h));
+        }
+        assertTrue("heights are all zero", range > 0.0f);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals("height " + i, expected[i], actual[i], tolerance * range);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Objectify. Copyright (c) 2011-2016. Kai Wolf. All rights reserved.
+ * Redistribution and use in source form with or without modification is not permitted.
+ */
+
+package de.hsrm.objectify.rendering;
+
+import android.opengl.GLSurfaceView;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.test.InstrumentationTestCase;
+import android.test.UiThreadTest;
+import android.view.MotionEvent;
+
+import javax.microedition.khronos.egl.EGL10;
+import javax.microedition.khronos.egl.EGLConfig;
+import javax.microedition.khronos.egl.EGLContext;
+import javax.microedition.khronos.egl.EGLDisplay;
+import javax.microedition.khronos.egl.EGLSurface;
+
+import de.hsrm.objectify.reconstruction.MeshBuilder;
+
+/**
+ * Checks that drawing frames and rotating the model by touch do not allocate, once the
+ * model is uploaded. The renderer draws into an offscreen surface of its own context
+ */
+public class RendererAllocationTest extends InstrumentationTestCase {
+    private static final int EGL_CONTEXT_CLIENT_VERSION = 0x3098;
+    private static final int EGL_OPENGL_ES2_BIT = 4;
+    private static final int SIZE = 64;
+    private static final int FRAMES = 100;
+    private EGL10 mEgl;
+    private EGLDisplay mDisplay;
+    private EGLContext mContext;
+    private EGLSurface mSurface;
+    private TouchSurfaceView mView;
+
+    /**
+     * Makes an offscreen context current on the calling thread, tests run on the UI
+     * thread while setUp and tearDown do not
+     */
+    private void createContext() {
+        mEgl = (EGL10) EGLContext.getEGL();
+        mDisplay = mEgl.eglGetDisplay(EGL10.EGL_DEFAULT_DISPLAY);
+        mEgl.eglInitialize(mDisplay, new int[2]);
+
+        int[] attributes = {EGL10.EGL_RENDERABLE_TYPE, EGL_OPENGL_ES2_BIT,
+            EGL10.EGL_DEPTH_SIZE, 16, EGL10.EGL_NONE};
+        EGLConfig[] configs = new EGLConfig[1];
+        int[] count = new int[1];
+        mEgl.eglChooseConfig(mDisplay, attributes, configs, 1, count);
+        assertEquals(1, count[0]);
+
+        mContext = mEgl.eglCreateContext(mDisplay, configs[0], EGL10.EGL_NO_CONTEXT,
+            new int[] {EGL_CONTEXT_CLIENT_VERSION, 2, EGL10.EGL_NONE});
+        mSurface = mEgl.eglCreatePbufferSurface(mDisplay, configs[0],
+            new int[] {EGL10.EGL_WIDTH, SIZE, EGL10.EGL_HEIGHT, SIZE, EGL10.EGL_NONE});
+        assertTrue(mEgl.eglMakeCurrent(mDisplay, mSurface, mSurface, mContext));
+    }
+
+    private void releaseContext() {
+        mEgl.eglMakeCurrent(mDisplay, EGL10.EGL_NO_SURFACE, EGL10.EGL_NO_SURFACE,
+            EGL10.EGL_NO_CONTEXT);
+        mEgl.eglDestroySurface(mDisplay, mSurface);
+        mEgl.eglDestroyContext(mDisplay, mContext);
+        mEgl.eglTerminate(mDisplay);
+    }
+
+    @UiThreadTest
+    public void testDrawFrameDoesNotAllocate() {
+        createContext();
+        try {
+            GLSurfaceView.Renderer renderer = createRenderer();
+
+            Debug.startAllocCounting();
+            Debug.resetThreadAllocCount();
+            for (int i = 0; i < FRAMES; i++) {
+                renderer.onDrawFrame(null);
+            }
+            int allocations = Debug.getThreadAllocCount();
+            Debug.stopAllocCounting();
+
+            assertEquals(0, allocations);
+        } finally {
+            releaseContext();
+        }
+    }
+
+    @UiThreadTest
+    public void testRotateDoesNotAllocate() {
+        createContext();
+        try {
+            GLSurfaceView.Renderer renderer = createRenderer();
+            long time = SystemClock.uptimeMillis();
+            MotionEvent down =
+                MotionEvent.obtain(time, time, MotionEvent.ACTION_DOWN, 10, 10, 0);
+            MotionEvent move =
+                MotionEvent.obtain(time, time, MotionEvent.ACTION_MOVE, 40, 30, 0);
+
+            Debug.startAllocCounting();
+            Debug.resetThreadAllocCount();
+            mView.onTouchEvent(down);
+            for (int i = 0; i < FRAMES; i++) {
+                mView.onTouchEvent(move);
+                renderer.onDrawFrame(null);
+            }
+            int allocations = Debug.getThreadAllocCount();
+            Debug.stopAllocCounting();
+            down.recycle();
+            move.recycle();
+
+            assertEquals(0, allocations);
+        } finally {
+            releaseContext();
+        }
+    }
+
+    /**
+     * Renderer of a view showing a small model, with the model already uploaded
+     */
+    private GLSurfaceView.Renderer createRenderer() {
+        float[] heights = new float[SIZE * SIZE];
+        for (int i = 0; i < heights.length; i++) {
+            heights[i] = (float) Math.sin(i % SIZE * 0.1f) * (i / SIZE);
+        }
+
+        mView = new TouchSurfaceView(getInstrumentation().getTargetContext(), SIZE, SIZE);
+        mView.setObjectModel(new ObjectModel(MeshBuilder.build(heights, SIZE, SIZE)));
+        GLSurfaceView.Renderer renderer = mView.getRenderer();
+        renderer.onSurfaceCreated(null, null);
+        renderer.onSurfaceChanged(null, SIZE, SIZE);
+        renderer.onDrawFrame(null);
+        return renderer;
+    }
+}
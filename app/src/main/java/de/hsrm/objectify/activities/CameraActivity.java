@@ -8,17 +8,15 @@ package de.hsrm.objectify.activities;
 import android.app.Activity;
 import android.content.Intent;
 import android.content.res.Resources;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.graphics.Matrix;
 import android.graphics.Point;
 import android.graphics.drawable.NinePatchDrawable;
 import android.hardware.Camera;
 import android.hardware.Camera.CameraInfo;
-import android.hardware.Camera.PictureCallback;
+import android.hardware.Camera.PreviewCallback;
 import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.Handler;
+import android.view.Choreographer;
 import android.view.Display;
 import android.view.Surface;
 import android.view.View;
@@ -30,10 +28,16 @@ import android.widget.ImageView;
 import android.widget.LinearLayout;
 
 import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import de.hsrm.objectify.R;
+import de.hsrm.objectify.camera.BurstSchedule;
 import de.hsrm.objectify.camera.CameraPreview;
 import de.hsrm.objectify.camera.Constants;
+import de.hsrm.objectify.reconstruction.CalibratedNormalSolver;
+import de.hsrm.objectify.reconstruction.CapturePipeline;
+import de.hsrm.objectify.reconstruction.LuminancePlane;
 import de.hsrm.objectify.rendering.ReconstructionService;
 import de.hsrm.objectify.utils.BitmapUtils;
 import de.hsrm.objectify.utils.CameraUtils;
@@ -42,6 +46,13 @@ import de.hsrm.objectify.utils.Storage;
 
 public class CameraActivity extends Activity {
     public static final String RECONSTRUCTION = "new_reconstruction";
+    /* switches the light sources on display vsync and takes all captures from the
+     * running preview, instead of one light source and one frame at a time */
+    public static final String BURST_CAPTURE = "burst_capture";
+    /* preview frames still in flight when the light source changes */
+    private static final int SETTLE_FRAMES = 2;
+    /* callback buffers of a burst capture, so the preview never waits for a buffer */
+    private static final int BURST_BUFFERS = 3;
     private CameraPreview mCameraPreview;
     private ImageView mCameraLighting;
     private ImageView mCameraLightingMask;
@@ -52,6 +63,14 @@ public class CameraActivity extends Activity {
     private int mImgCounter;
     private int mCameraRotation;
     private ArrayList<NinePatchDrawable> mLightSourcesList;
+    private Camera.Size mPreviewSize;
+    private int mSkippedFrames;
+    /* converts and writes the captured frames off the UI thread, in order */
+    private ExecutorService mWriter;
+    /* preprocesses the captures while the remaining ones are taken */
+    private CapturePipeline mPipeline;
+    /* timing of the running burst capture, only touched on the UI thread */
+    private BurstSchedule mBurst;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -65,6 +84,7 @@ public class CameraActivity extends Activity {
 
         /* opening front facing camera */
         mCamera = openFrontFacingCamera();
+        mWriter = Executors.newSingleThreadExecutor();
 
         mProgressScreen = (LinearLayout) findViewById(R.id.preparing);
         mCameraPreview = (CameraPreview) findViewById(R.id.camera_surface);
@@ -78,8 +98,23 @@ public class CameraActivity extends Activity {
             public void onClick(View view) {
                 mImgCounter = 0;
                 mDirName = Storage.getRandomName(10);
+                mPreviewSize = mCamera.getParameters().getPreviewSize();
+                /* the pipeline only does the work of the solver that is going to run */
+                String solver = getIntent().getStringExtra(
+                    ReconstructionService.NORMAL_SOLVER);
+                mPipeline = new CapturePipeline(
+                    Constants.NUM_IMAGES, ReconstructionService.MASK_IMAGE,
+                    ReconstructionService.SOLVER_SVD.equals(solver) ? null
+                        : new CalibratedNormalSolver(
+                            CalibratedNormalSolver.LIGHT_DIRECTIONS));
+                CapturePipeline.register(mDirName, mPipeline);
                 setupDisplayScreen();
-                takePicture();
+                if (getIntent().getBooleanExtra(BURST_CAPTURE, false)) {
+                    startBurst();
+                } else {
+                    mCamera.setPreviewCallbackWithBuffer(previewFrameCallback());
+                    takePicture();
+                }
             }
         });
 
@@ -90,61 +125,180 @@ public class CameraActivity extends Activity {
     @Override
     protected void onPause() {
         super.onPause();
+        /* stops the vsync callbacks of a running burst */
+        mBurst = null;
         releaseCamera();
     }
 
+    @Override
+    protected void onDestroy() {
+        /* frames already captured are still written, an incomplete capture is not
+         * preprocessed any further */
+        mWriter.shutdown();
+        if (mPipeline != null) {
+            CapturePipeline.take(mDirName);
+            mPipeline.cancel();
+        }
+        super.onDestroy();
+    }
+
     private void takePicture() {
         mCameraLighting.setImageDrawable(mLightSourcesList.get(mImgCounter));
         /* give the light source view a little time to update itself */
         new Handler().postDelayed(new Runnable() {
             @Override
             public void run() {
-                mCamera.takePicture(null, null, cameraImageCallback());
+                /* a single buffer, so exactly one frame is delivered at a time */
+                mSkippedFrames = 0;
+                mCamera.addCallbackBuffer(
+                    new byte[CameraUtils.previewBufferSize(mPreviewSize)]);
             }
         }, 25);
     }
 
-    private PictureCallback cameraImageCallback() {
-        return new PictureCallback() {
+    private PreviewCallback previewFrameCallback() {
+        return new PreviewCallback() {
 
             @Override
-            public void onPictureTaken(byte[] bytes, Camera camera) {
-                Bitmap bmp = CameraUtils.fixRotateMirrorImage(
-                    BitmapFactory.decodeByteArray(bytes, 0, bytes.length));
-                /* rotate camera image according to camera rotation (portrait vs.
-                 * landscape) */
-                Matrix matrix = new Matrix();
-                /* compensate the mirror */
-                matrix.postRotate((360 - mCameraRotation) % 360);
-                bmp = Bitmap.createBitmap(
-                    bmp, 0, 0, bmp.getWidth(), bmp.getHeight(), matrix, true);
-
-                String fileName =
-                    Constants.IMAGE_NAME + mImgCounter + "." + Constants.IMAGE_FORMAT;
-                BitmapUtils.saveBitmap(
-                    BitmapUtils.convertToGrayscale(bmp), mDirName, fileName);
+            public void onPreviewFrame(byte[] bytes, Camera camera) {
+                if (mSkippedFrames < SETTLE_FRAMES) {
+                    mSkippedFrames += 1;
+                    camera.addCallbackBuffer(bytes);
+                    return;
+                }
+
+                saveFrame(bytes, mImgCounter);
                 mImgCounter += 1;
-                mCamera.startPreview();
                 if (mImgCounter <= Constants.NUM_IMAGES) {
                     takePicture();
                 } else {
-                    /* start 3d reconstruction asynchronously in background */
-                    Intent photometricStereo =
-                        new Intent(getApplicationContext(), ReconstructionService.class);
-                    photometricStereo.putExtra(
-                        ReconstructionService.DIRECTORY_NAME, mDirName);
-                    startService(photometricStereo);
-                    /* move to 3d viewer already */
-                    Intent view3DModel = new Intent(
-                        getApplicationContext(), ReconstructionListActivity.class);
-                    view3DModel.putExtra(RECONSTRUCTION, true);
-                    startActivity(view3DModel);
-                    finish();
+                    camera.setPreviewCallbackWithBuffer(null);
+                    startReconstruction();
+                }
+            }
+        };
+    }
+
+    /**
+     * Shows all light sources in a row, each one from the vsync after a preview frame of
+     * the previous one has been taken
+     */
+    private void startBurst() {
+        Display display = getWindowManager().getDefaultDisplay();
+        long vsyncPeriod = (long) (1e9 / display.getRefreshRate());
+        /* the preview frame rate range is given in frames per 1000 seconds */
+        int[] fpsRange = new int[2];
+        mCamera.getParameters().getPreviewFpsRange(fpsRange);
+        long frameInterval =
+            (long) (1e12 / fpsRange[Camera.Parameters.PREVIEW_FPS_MAX_INDEX]);
+        mBurst = new BurstSchedule(
+            Constants.NUM_IMAGES + 1, SETTLE_FRAMES, vsyncPeriod, frameInterval);
+
+        mCamera.setPreviewCallbackWithBuffer(burstFrameCallback());
+        int bufferSize = CameraUtils.previewBufferSize(mPreviewSize);
+        for (int i = 0; i < BURST_BUFFERS; i++) {
+            mCamera.addCallbackBuffer(new byte[bufferSize]);
+        }
+        Choreographer.getInstance().postFrameCallback(burstVsyncCallback());
+    }
+
+    private Choreographer.FrameCallback burstVsyncCallback() {
+        return new Choreographer.FrameCallback() {
+
+            @Override
+            public void doFrame(long frameTimeNanos) {
+                BurstSchedule burst = mBurst;
+                if (burst == null) {
+                    return;
+                }
+                int pattern = burst.onVsync(frameTimeNanos);
+                if (pattern >= 0) {
+                    mCameraLighting.setImageDrawable(mLightSourcesList.get(pattern));
+                }
+                if (!burst.isComplete()) {
+                    Choreographer.getInstance().postFrameCallback(this);
+                }
+            }
+        };
+    }
+
+    private PreviewCallback burstFrameCallback() {
+        return new PreviewCallback() {
+
+            @Override
+            public void onPreviewFrame(byte[] bytes, Camera camera) {
+                /* preview frames and vsync callbacks share the UI thread */
+                int pattern = mBurst == null ? -1 : mBurst.tag(System.nanoTime());
+                if (pattern < 0) {
+                    camera.addCallbackBuffer(bytes);
+                    return;
+                }
+
+                mBurst.capture();
+                saveFrame(bytes, pattern);
+                if (mBurst.isComplete()) {
+                    mBurst = null;
+                    camera.setPreviewCallbackWithBuffer(null);
+                    startReconstruction();
+                } else {
+                    /* the frame is owned by the writer now */
+                    camera.addCallbackBuffer(
+                        new byte[CameraUtils.previewBufferSize(mPreviewSize)]);
                 }
             }
         };
     }
 
+    /**
+     * Writes the luminance of a NV21 preview frame as capture with the given index and
+     * hands it to the capture pipeline. The frame is turned upright and mirrored on the
+     * writer thread
+     */
+    private void saveFrame(final byte[] frame, final int index) {
+        final int width = mPreviewSize.width;
+        final int height = mPreviewSize.height;
+        final int rotation = CameraUtils.getCaptureRotation(mCameraRotation);
+        final String dirName = mDirName;
+        final CapturePipeline pipeline = mPipeline;
+        final String fileName =
+            Constants.IMAGE_NAME + index + "." + Constants.IMAGE_FORMAT;
+        mWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                LuminancePlane capture =
+                    LuminancePlane.fromOriented(frame, width, height, rotation, true);
+                pipeline.submit(index, capture);
+                BitmapUtils.saveLuminancePlane(capture, dirName, fileName);
+            }
+        });
+    }
+
+    private void startReconstruction() {
+        /* the pipeline is complete once the writer has handed over all captures */
+        final CapturePipeline pipeline = mPipeline;
+        mPipeline = null;
+        mWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                pipeline.finish();
+            }
+        });
+        /* start 3d reconstruction asynchronously in background, it picks up the
+         * pipeline and waits for the remaining preprocessing */
+        Intent photometricStereo =
+            new Intent(getApplicationContext(), ReconstructionService.class);
+        photometricStereo.putExtra(ReconstructionService.DIRECTORY_NAME, mDirName);
+        photometricStereo.putExtra(ReconstructionService.NORMAL_SOLVER,
+            getIntent().getStringExtra(ReconstructionService.NORMAL_SOLVER));
+        startService(photometricStereo);
+        /* move to 3d viewer already */
+        Intent view3DModel =
+            new Intent(getApplicationContext(), ReconstructionListActivity.class);
+        view3DModel.putExtra(RECONSTRUCTION, true);
+        startActivity(view3DModel);
+        finish();
+    }
+
     private void setupDisplayScreen() {
         /* hide camera preview */
         LayoutParams layoutParams = mCameraPreview.getLayoutParams();
@@ -178,13 +332,6 @@ public class CameraActivity extends Activity {
         /* compensate the mirror */
         result = (360 - result) % 360;
         camera.setDisplayOrientation(result);
-        Camera.Parameters params = camera.getParameters();
-
-        /* set camera picture size to preferred image resolution */
-        Camera.Size targetSize =
-            CameraUtils.determineTargetPictureSize(params, Constants.IMAGE_RESOLUTION);
-        params.setPictureSize(targetSize.width, targetSize.height);
-        camera.setParameters(params);
 
         return camera;
     }
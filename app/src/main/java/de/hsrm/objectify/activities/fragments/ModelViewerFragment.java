@@ -12,7 +12,9 @@ import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Point;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.Display;
 import android.view.LayoutInflater;
@@ -20,14 +22,15 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.widget.FrameLayout;
 
-import java.io.FileInputStream;
+import java.io.File;
 import java.io.IOException;
-import java.io.ObjectInputStream;
 
 import de.hsrm.objectify.R;
 import de.hsrm.objectify.database.DatabaseAdapter;
 import de.hsrm.objectify.database.DatabaseProvider;
+import de.hsrm.objectify.rendering.ModelCache;
 import de.hsrm.objectify.rendering.ObjectModel;
+import de.hsrm.objectify.rendering.ReconstructionService;
 import de.hsrm.objectify.rendering.TouchSurfaceView;
 import de.hsrm.objectify.utils.Storage;
 
@@ -38,9 +41,13 @@ import de.hsrm.objectify.utils.Storage;
  * interactions
  */
 public class ModelViewerFragment extends Fragment {
+    private static final String TAG = "ModelViewerFragment";
     private static final String ARG_GALLERY_ID = "gallery_id";
-    private ObjectModel mObjectModel;
+    /* levels of detail of the model, finest first, missing levels are null */
+    private ObjectModel[] mLevels;
     private String mGalleryId;
+    private TouchSurfaceView mSurfaceView;
+    private LoadModel mLoadModel;
 
     /**
      * Mandatory empty constructor for the fragment manager to instantiate the fragment
@@ -73,22 +80,37 @@ public class ModelViewerFragment extends Fragment {
             mGalleryId = savedInstanceState.getString(ARG_GALLERY_ID);
         } else if (getArguments().getString(ARG_GALLERY_ID) != null) {
             mGalleryId = getArguments().getString(ARG_GALLERY_ID);
-            Log.i("ModelViewerFragment", "galleryID: " + mGalleryId);
-            String path = getModelPathFromDatabase(mGalleryId);
-            /* TODO: load object asynchronously */
-            try {
-                ObjectInputStream ois = new ObjectInputStream(new FileInputStream(path));
-                mObjectModel = (ObjectModel) ois.readObject();
-                ois.close();
-                mObjectModel.setTextureBitmap(getTextureFromDatabase(mGalleryId));
-            } catch (IOException e) {
-                e.printStackTrace();
-                Log.e("ModelViewerFragment", "Could not read objectmodel file");
-            } catch (ClassNotFoundException e) {
-                e.printStackTrace();
-                Log.e("ModelViewerFragment", "Could not cast to ObjectModel");
+        }
+        if (mGalleryId == null) {
+            return;
+        }
+
+        Log.i(TAG, "galleryID: " + mGalleryId);
+        /* models viewed before are taken from the cache, no need to load them again */
+        ModelCache cache = ModelCache.getInstance(getActivity());
+        ObjectModel model = cache.get(mGalleryId, 0);
+        if (model != null) {
+            mLevels = new ObjectModel[ReconstructionService.MODEL_LEVELS];
+            mLevels[0] = model;
+            for (int level = 1; level < mLevels.length; level++) {
+                if (!cache.isMissing(mGalleryId, level)) {
+                    mLevels[level] = cache.get(mGalleryId, level);
+                }
             }
         }
+        Log.d(TAG, "model cache: " + cache);
+        if (mLevels == null) {
+            mLoadModel = new LoadModel(getActivity().getContentResolver(), cache);
+            mLoadModel.execute(mGalleryId);
+        }
+    }
+
+    @Override
+    public void onDestroy() {
+        if (mLoadModel != null) {
+            mLoadModel.cancel(false);
+        }
+        super.onDestroy();
     }
 
     @Override
@@ -110,21 +132,38 @@ public class ModelViewerFragment extends Fragment {
         Display d = getActivity().getWindowManager().getDefaultDisplay();
         Point size = new Point();
         d.getSize(size);
-        TouchSurfaceView glSurfaceView =
-            new TouchSurfaceView(getActivity(), size.x, size.y);
-        frameLayout.addView(glSurfaceView);
-        glSurfaceView.setObjectModel(mObjectModel);
+        mSurfaceView = new TouchSurfaceView(getActivity(), size.x, size.y);
+        frameLayout.addView(mSurfaceView);
+        /* null until the loader has published the coarsest level */
+        if (mLevels != null) {
+            mSurfaceView.setLevels(mLevels);
+        }
 
         return rootView;
     }
 
-    private Bitmap getTextureFromDatabase(String galleryId) {
-        ContentResolver cr = getActivity().getContentResolver();
+    @Override
+    public void onDestroyView() {
+        mSurfaceView = null;
+        super.onDestroyView();
+    }
+
+    /**
+     * Hands the levels of a model to the surface view, which might not be created yet
+     */
+    private void showLevels(ObjectModel[] levels) {
+        mLevels = levels;
+        if (mSurfaceView != null) {
+            mSurfaceView.setLevels(levels);
+        }
+    }
+
+    private static Bitmap getTextureFromDatabase(ContentResolver cr, String galleryId) {
         Uri galleryItemUri = DatabaseProvider.CONTENT_URI.buildUpon()
                                  .appendPath(DatabaseAdapter.DATABASE_TABLE_GALLERY)
                                  .build();
         Cursor c = cr.query(galleryItemUri, null, DatabaseAdapter.GALLERY_ID_KEY + "=?",
-            new String[] {mGalleryId}, null);
+            new String[] {galleryId}, null);
         c.moveToFirst();
         Bitmap texture = BitmapFactory.decodeFile(Storage.getExternalRootDirectory() + "/"
             + c.getString(DatabaseAdapter.GALLERY_IMAGE_PATH_COLUMN) + "/image_1.png");
@@ -132,13 +171,12 @@ public class ModelViewerFragment extends Fragment {
         return texture;
     }
 
-    private String getModelPathFromDatabase(String galleryId) {
-        ContentResolver cr = getActivity().getContentResolver();
+    private static String getModelPathFromDatabase(ContentResolver cr, String galleryId) {
         Uri galleryItemUri = DatabaseProvider.CONTENT_URI.buildUpon()
                                  .appendPath(DatabaseAdapter.DATABASE_TABLE_GALLERY)
                                  .build();
         Cursor c = cr.query(galleryItemUri, null, DatabaseAdapter.GALLERY_ID_KEY + "=?",
-            new String[] {mGalleryId}, null);
+            new String[] {galleryId}, null);
         c.moveToFirst();
         String objectId = c.getString(DatabaseAdapter.GALLERY_OBJECT_ID_COLUMN);
         c.close();
@@ -155,6 +193,78 @@ public class ModelViewerFragment extends Fragment {
         return objFilePath;
     }
 
+    /**
+     * Resolves the database rows and reads the levels of detail of a model off the UI
+     * thread, coarsest first. Every level is published as soon as it is read, so there
+     * is something to look at regardless of the model size. Models reconstructed without
+     * coarser levels are shown once fully loaded
+     */
+    private class LoadModel extends AsyncTask<String, ObjectModel[], ObjectModel[]> {
+        private final ContentResolver mContentResolver;
+        private final ModelCache mCache;
+
+        LoadModel(ContentResolver contentResolver, ModelCache cache) {
+            mContentResolver = contentResolver;
+            mCache = cache;
+        }
+
+        @Override
+        protected ObjectModel[] doInBackground(String... params) {
+            long start = SystemClock.elapsedRealtime();
+            String galleryId = params[0];
+            String path = getModelPathFromDatabase(mContentResolver, galleryId);
+            ObjectModel[] levels = new ObjectModel[ReconstructionService.MODEL_LEVELS];
+            try {
+                for (int level = levels.length - 1; level >= 0; level--) {
+                    if (isCancelled()) {
+                        return null;
+                    }
+                    File file = ReconstructionService.getLevelFile(path, level);
+                    if (!file.exists()) {
+                        mCache.markMissing(galleryId, level);
+                        continue;
+                    }
+                    levels[level] = mCache.get(galleryId, level);
+                    if (levels[level] == null) {
+                        levels[level] = ObjectModel.load(file.getPath());
+                        mCache.put(galleryId, level, levels[level]);
+                    }
+                    if (level > 0) {
+                        publishProgress(levels.clone());
+                        Log.d(TAG, "level " + level + " loaded after "
+                                + (SystemClock.elapsedRealtime() - start) + " ms");
+                    }
+                }
+
+                if (levels[0] == null) {
+                    throw new IOException("Model file " + path + " is missing");
+                }
+                levels[0].setTextureBitmap(
+                    getTextureFromDatabase(mContentResolver, galleryId));
+                Log.d(TAG, "model loaded after " + (SystemClock.elapsedRealtime() - start)
+                        + " ms");
+                return levels;
+            } catch (IOException e) {
+                e.printStackTrace();
+                Log.e(TAG, "Could not read objectmodel file");
+            }
+            return null;
+        }
+
+        @Override
+        protected void onProgressUpdate(ObjectModel[]... values) {
+            showLevels(values[0]);
+        }
+
+        @Override
+        protected void onPostExecute(ObjectModel[] levels) {
+            if (levels != null) {
+                showLevels(levels);
+            }
+            mLoadModel = null;
+        }
+    }
+
     /**
      * This interface must be implemented by activities that contain this fragment to
      * allow an
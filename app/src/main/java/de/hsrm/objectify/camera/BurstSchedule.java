@@ -0,0 +1,106 @@
+/*
+ * Objectify. Copyright (c) 2011-2016. Kai Wolf. All rights reserved.
+ * Redistribution and use in source form with or without modification is not permitted.
+ */
+
+package de.hsrm.objectify.camera;
+
+/**
+ * Timing of a burst capture, which shows the light patterns one after the other and
+ * grabs a single preview frame per pattern. The patterns are advanced on display vsync,
+ * the next one is shown as soon as a frame of the current one has been taken.
+ * <p/>
+ * Preview frames carry no exposure time, so they are tagged by their arrival. A pattern
+ * is on screen one vsync period after the frame it was set in and a preview frame is
+ * only taken for it if it arrives later than the settle frames plus its own exposure,
+ * measured in camera frame intervals. Earlier frames may have been exposed during the
+ * transition and are discarded. All times in nanoseconds of {@code System.nanoTime},
+ * the clock of the display vsync.
+ */
+public class BurstSchedule {
+    private final int mNumPatterns;
+    private final int mSettleFrames;
+    private final long mVsyncPeriod;
+    private final long mNominalInterval;
+    private int mPattern = -1;
+    private boolean mCaptured = true;
+    private long mShownAt;
+    private long mLastArrival = -1;
+    private long mFrameInterval;
+
+    /**
+     * @param numPatterns   number of light patterns, one frame is taken of each
+     * @param settleFrames  camera frames still in flight when the light pattern changes
+     * @param vsyncPeriod   duration of a display frame
+     * @param frameInterval expected duration of a camera frame, refined with the
+     *                      arrivals of the preview frames but never below this
+     */
+    public BurstSchedule(int numPatterns, int settleFrames, long vsyncPeriod,
+        long frameInterval) {
+        mNumPatterns = numPatterns;
+        mSettleFrames = settleFrames;
+        mVsyncPeriod = vsyncPeriod;
+        mNominalInterval = frameInterval;
+        mFrameInterval = frameInterval;
+    }
+
+    /**
+     * Called on every display vsync
+     *
+     * @param frameTime vsync time of the frame about to be drawn
+     * @return index of the pattern to show from this frame on, or -1 to keep the
+     * current one
+     */
+    public int onVsync(long frameTime) {
+        if (!mCaptured || mPattern + 1 >= mNumPatterns) {
+            return -1;
+        }
+        mPattern += 1;
+        mCaptured = false;
+        mShownAt = frameTime + mVsyncPeriod;
+
+        return mPattern;
+    }
+
+    /**
+     * Called for every preview frame
+     *
+     * @param arrival time the frame was delivered
+     * @return index of the pattern on screen during the whole exposure of the frame, or
+     * -1 if the frame is to be discarded
+     */
+    public int tag(long arrival) {
+        if (mLastArrival >= 0) {
+            /* moving average, frames delivered in bunches must not shorten the
+             * settling below the nominal interval */
+            mFrameInterval = Math.max(mNominalInterval,
+                (3 * mFrameInterval + arrival - mLastArrival) / 4);
+        }
+        mLastArrival = arrival;
+
+        if (mPattern < 0 || mCaptured
+            || arrival - mShownAt < (mSettleFrames + 1) * mFrameInterval) {
+            return -1;
+        }
+
+        return mPattern;
+    }
+
+    /**
+     * Marks the current pattern as taken, the next one is shown on the following vsync
+     */
+    public void capture() {
+        mCaptured = true;
+    }
+
+    /**
+     * @return true once a frame of every pattern has been taken
+     */
+    public boolean isComplete() {
+        return mCaptured && mPattern + 1 == mNumPatterns;
+    }
+
+    public long getFrameInterval() {
+        return mFrameInterval;
+    }
+}
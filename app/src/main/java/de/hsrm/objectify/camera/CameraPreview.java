@@ -6,6 +6,7 @@
 package de.hsrm.objectify.camera;
 
 import android.content.Context;
+import android.graphics.ImageFormat;
 import android.hardware.Camera;
 import android.hardware.Camera.Size;
 import android.util.AttributeSet;
@@ -75,8 +76,10 @@ public class CameraPreview extends SurfaceView implements SurfaceHolder.Callback
 
         Camera.Parameters params = mCamera.getParameters();
         Size targetSize =
-            CameraUtils.determineTargetPictureSize(params, Constants.IMAGE_RESOLUTION);
+            CameraUtils.determineTargetPreviewSize(params, Constants.IMAGE_RESOLUTION);
         params.setPreviewSize(targetSize.width, targetSize.height);
+        /* captures are taken from the luminance plane of the preview frames */
+        params.setPreviewFormat(ImageFormat.NV21);
         mCamera.setParameters(params);
         mCamera.startPreview();
     }
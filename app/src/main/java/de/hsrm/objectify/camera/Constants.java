@@ -8,10 +8,14 @@ package de.hsrm.objectify.camera;
 import android.graphics.Bitmap;
 
 public interface Constants {
-    int IMAGE_RESOLUTION = 120 * 160;
+    /* pixel count the preview size is chosen by. Normal estimation runs in row bands,
+     * but the preview buffers, the integration and the full resolution mesh still grow
+     * with the image, so captures stay at VGA rather than the largest preview size */
+    int IMAGE_RESOLUTION = 480 * 640;
     int NUM_IMAGES = 4;
     String IMAGE_NAME = "image_";
-    String IMAGE_FORMAT = "png";
+    /* captures are stored as luminance planes, see LuminancePlane */
+    String IMAGE_FORMAT = "lum";
     Bitmap.CompressFormat IMAGE_COMPRESS_FORMAT = Bitmap.CompressFormat.PNG;
 
     class ReconstructionType {
@@ -21,8 +21,13 @@ import android.database.sqlite.SQLiteOpenHelper;
  * +-----+-----------+  +-----+------------+------+-----------+-------+----------+-----------+
  * | _id | file_path |  | _id | image_path | date | dimension | faces | vertices | object_id |
  * +-----+-----------+  +-----+------------+------+-----------+-------+----------+-----------+
+ *                      -------------+---------------+
+ *                       full_faces  | full_vertices |
+ *                      -------------+---------------+
  * @endcode
  * clang-format on
+ * faces and vertices count the stored mesh, full_faces and full_vertices the mesh of
+ * the whole image before the background was removed.
  */
 public class DatabaseAdapter {
 
@@ -51,6 +56,10 @@ public class DatabaseAdapter {
     public static final String GALLERY_VERTICES_KEY = "vertices";
     public static final int GALLERY_VERTICES_COLUMN = 5;
     public static final String GALLERY_OBJECT_ID_KEY = "object_id";
+    public static final String GALLERY_FULL_FACES_KEY = "full_faces";
+    public static final int GALLERY_FULL_FACES_COLUMN = 7;
+    public static final String GALLERY_FULL_VERTICES_KEY = "full_vertices";
+    public static final int GALLERY_FULL_VERTICES_COLUMN = 8;
     private static final String DATABASE_TABLE_GALLERY_CREATE = "CREATE TABLE "
             + DATABASE_TABLE_GALLERY
             + " ("
@@ -61,10 +70,13 @@ public class DatabaseAdapter {
             + GALLERY_FACES_KEY + " TEXT NOT NULL, "
             + GALLERY_VERTICES_KEY + " TEXT NOT NULL, "
             + GALLERY_OBJECT_ID_KEY + " INTEGER REFERENCES " + DATABASE_TABLE_OBJECT
+            + ", "
+            + GALLERY_FULL_FACES_KEY + " TEXT, "
+            + GALLERY_FULL_VERTICES_KEY + " TEXT"
             + ")";
     public static final int GALLERY_OBJECT_ID_COLUMN = 6;
     private static final String DATABASE_NAME = "objectify.db";
-    private static final int DATABASE_VERSION = 1;
+    private static final int DATABASE_VERSION = 2;
     private static SQLiteDatabase db;
     private DatabaseHelper dbHelper;
 
@@ -106,8 +118,13 @@ public class DatabaseAdapter {
 
         @Override
         public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-            db.execSQL("DROP TABLE IF EXISTS " + DATABASE_TABLE_GALLERY);
-            db.execSQL("DROP TABLE IF EXISTS " + DATABASE_TABLE_OBJECT);
+            if (oldVersion < 2) {
+                /* version 2 adds the mesh size before background removal */
+                db.execSQL("ALTER TABLE " + DATABASE_TABLE_GALLERY + " ADD COLUMN "
+                    + GALLERY_FULL_FACES_KEY + " TEXT");
+                db.execSQL("ALTER TABLE " + DATABASE_TABLE_GALLERY + " ADD COLUMN "
+                    + GALLERY_FULL_VERTICES_KEY + " TEXT");
+            }
         }
     }
 }
@@ -13,6 +13,8 @@ import java.io.ByteArrayOutputStream;
 import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
 
 import de.hsrm.objectify.rendering.ObjectModel;
 import de.hsrm.objectify.utils.Storage;
@@ -30,30 +32,28 @@ public class OBJExport {
             BufferedWriter out = new BufferedWriter(new FileWriter(objPath));
             out.write("# Created by Objectify\n");
             out.write("mtllib objectify_model.mtl\n");
-            float[] vertices = objectModel.getVertices();
-            short[] faces = objectModel.getFaces();
+            FloatBuffer vertices = objectModel.getVertexBuffer();
+            IntBuffer faces = objectModel.getFacesBuffer();
 
             /* write vertices */
-            for (int i = 0; i < vertices.length; i += 3) {
-                out.write("v " + vertices[i] + " " + vertices[i + 1] + " "
-                    + vertices[i + 2] + "\n");
+            for (int i = 0; i < vertices.capacity(); i += 3) {
+                out.write("v " + vertices.get(i) + " " + vertices.get(i + 1) + " "
+                    + vertices.get(i + 2) + "\n");
             }
 
-            /* writing texture coords */
+            /* writing texture coords, vertices are placed at their pixel position */
             int width = texture.getWidth();
             int height = texture.getHeight();
-            for (int h = height - 1; h >= 0; h--) {
-                for (int w = 0; w < width; w++) {
-                    out.write("vt " + (float) w / (float) (width - 1) + " "
-                        + (float) h / (float) (height - 1) + "\n");
-                }
+            for (int i = 0; i < vertices.capacity(); i += 3) {
+                out.write("vt " + vertices.get(i) / (float) (width - 1) + " "
+                    + (1.0f - vertices.get(i + 1) / (float) (height - 1)) + "\n");
             }
             /* writing faces */
             out.write("usemtl picture\n");
-            for (int i = 0; i < faces.length; i += 3) {
-                int one = faces[i] + 1;
-                int two = faces[i + 1] + 1;
-                int three = faces[i + 2] + 1;
+            for (int i = 0; i < faces.capacity(); i += 3) {
+                int one = faces.get(i) + 1;
+                int two = faces.get(i + 1) + 1;
+                int three = faces.get(i + 2) + 1;
                 out.write("f " + one + "/" + one + " " + two + "/" + two + " " + three
                     + "/" + three + "\n");
             }
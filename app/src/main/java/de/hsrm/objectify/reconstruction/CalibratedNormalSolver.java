@@ -0,0 +1,154 @@
+/*
+ * Objectify. Copyright (c) 2011-2016. Kai Wolf. All rights reserved.
+ * Redistribution and use in source form with or without modification is not permitted.
+ */
+
+package de.hsrm.objectify.reconstruction;
+
+/**
+ * Closed-form photometric stereo for calibrated light sources. The pseudo-inverse of the
+ * (numImages x 3) light matrix is computed once, afterwards every pixel is solved with a
+ * fixed 3 x numImages multiply over a packed intensity array.
+ * <p/>
+ * The resulting vectors are written in the component order of the SVD basis consumed by
+ * compute_normals: depth first, followed by the negated in-plane components in the order
+ * lh_integration integrates them. The fourth component holds the albedo.
+ */
+public class CalibratedNormalSolver {
+    /* approximate direction of the display light sources (left, top, right, bottom) in
+     * image coordinates, following the order in which the images are taken */
+    public static final float[][] LIGHT_DIRECTIONS = {
+        {-0.3f, 0.0f, 1.0f}, {0.0f, -0.3f, 1.0f}, {0.3f, 0.0f, 1.0f}, {0.0f, 0.3f, 1.0f}};
+    private final int mNumImages;
+    private final float[] mPseudoInverse;
+
+    /**
+     * @param lights one light direction per image in image coordinates (x right, y down,
+     *               z towards the camera). Directions don't need to be normalized
+     */
+    public CalibratedNormalSolver(float[][] lights) {
+        mNumImages = lights.length;
+        if (mNumImages < 3) {
+            throw new IllegalArgumentException("At least three light sources required");
+        }
+
+        /* normalized light matrix L */
+        double[][] l = new double[mNumImages][3];
+        for (int k = 0; k < mNumImages; k++) {
+            double len = Math.sqrt(lights[k][0] * lights[k][0]
+                + lights[k][1] * lights[k][1] + lights[k][2] * lights[k][2]);
+            for (int c = 0; c < 3; c++) {
+                l[k][c] = lights[k][c] / len;
+            }
+        }
+
+        /* L^T L */
+        double[][] ltl = new double[3][3];
+        for (int r = 0; r < 3; r++) {
+            for (int c = 0; c < 3; c++) {
+                for (int k = 0; k < mNumImages; k++) {
+                    ltl[r][c] += l[k][r] * l[k][c];
+                }
+            }
+        }
+
+        /* (L^T L)^-1 by cofactors */
+        double det = ltl[0][0] * (ltl[1][1] * ltl[2][2] - ltl[1][2] * ltl[2][1])
+            - ltl[0][1] * (ltl[1][0] * ltl[2][2] - ltl[1][2] * ltl[2][0])
+            + ltl[0][2] * (ltl[1][0] * ltl[2][1] - ltl[1][1] * ltl[2][0]);
+        if (Math.abs(det) < 1.0e-9) {
+            throw new IllegalArgumentException("Light directions must not be coplanar");
+        }
+        double[][] inv = new double[3][3];
+        for (int r = 0; r < 3; r++) {
+            for (int c = 0; c < 3; c++) {
+                int r1 = (c + 1) % 3, r2 = (c + 2) % 3;
+                int c1 = (r + 1) % 3, c2 = (r + 2) % 3;
+                inv[r][c] = (ltl[r1][c1] * ltl[r2][c2] - ltl[r1][c2] * ltl[r2][c1]) / det;
+            }
+        }
+
+        /* pseudo-inverse P = (L^T L)^-1 L^T, stored row-major as 3 x numImages */
+        mPseudoInverse = new float[3 * mNumImages];
+        for (int r = 0; r < 3; r++) {
+            for (int k = 0; k < mNumImages; k++) {
+                double sum = 0.0;
+                for (int c = 0; c < 3; c++) {
+                    sum += inv[r][c] * l[k][c];
+                }
+                mPseudoInverse[r * mNumImages + k] = (float) sum;
+            }
+        }
+    }
+
+    public int getNumImages() {
+        return mNumImages;
+    }
+
+    /**
+     * Solves the normals of a block of pixels.
+     *
+     * @param intensities planar intensities, value of image k at pixel i is stored at
+     *                    {@code k * stride + i}
+     * @param stride      distance between two image planes inside intensities
+     * @param pixels      number of pixels to solve, starting at index 0 of every plane
+     * @param out         raw normals, 4 floats per pixel
+     * @param outOffset   pixel offset inside out
+     */
+    public void solve(float[] intensities, int stride, int pixels, float[] out,
+        int outOffset) {
+        final int n = mNumImages;
+        final float[] p = mPseudoInverse;
+        int o = 4 * outOffset;
+        for (int i = 0; i < pixels; i++) {
+            float gx = 0.0f, gy = 0.0f, gz = 0.0f;
+            for (int k = 0; k < n; k++) {
+                float v = intensities[k * stride + i];
+                gx += p[k] * v;
+                gy += p[n + k] * v;
+                gz += p[2 * n + k] * v;
+            }
+            float albedo = (float) Math.sqrt(gx * gx + gy * gy + gz * gz);
+            out[o++] = gz;
+            out[o++] = -gy;
+            out[o++] = -gx;
+            out[o++] = albedo;
+        }
+    }
+
+    /**
+     * Adds the contribution of a single image to the normals of all pixels, for images
+     * arriving one at a time. Once all images have been added in the order of their
+     * indices and {@link #computeAlbedo} has been called, out holds the same as after
+     * {@link #solve} over all pixels
+     *
+     * @param k     index of the image
+     * @param image intensities of the image, one unsigned byte per pixel
+     * @param out   raw normals, 4 floats per pixel, zero before the first image is added
+     */
+    public void accumulate(int k, byte[] image, float[] out) {
+        final int n = mNumImages;
+        final float px = mPseudoInverse[k];
+        final float py = mPseudoInverse[n + k];
+        final float pz = mPseudoInverse[2 * n + k];
+        int o = 0;
+        for (int i = 0; i < image.length; i++) {
+            float v = image[i] & 0xFF;
+            out[o++] += pz * v;
+            out[o++] -= py * v;
+            out[o++] -= px * v;
+            o++;
+        }
+    }
+
+    /**
+     * Writes the albedo of all pixels once every image has been added by
+     * {@link #accumulate}
+     */
+    public void computeAlbedo(float[] out) {
+        for (int o = 0; o < out.length; o += 4) {
+            float gx = out[o + 2], gy = out[o + 1], gz = out[o];
+            out[o + 3] = (float) Math.sqrt(gx * gx + gy * gy + gz * gz);
+        }
+    }
+}
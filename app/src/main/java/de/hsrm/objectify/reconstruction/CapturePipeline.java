@@ -0,0 +1,164 @@
+/*
+ * Objectify. Copyright (c) 2011-2016. Kai Wolf. All rights reserved.
+ * Redistribution and use in source form with or without modification is not permitted.
+ */
+
+package de.hsrm.objectify.reconstruction;
+
+import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Preprocesses the captures of one reconstruction while the remaining ones are still
+ * being taken. Every capture is queued as soon as it is available, the ambient capture
+ * first, and processed on a single background thread: the ambient light is subtracted
+ * by a {@link Preprocessor}, followed by the share of the capture in the normal
+ * estimation, depending on the solver the reconstruction is going to use.
+ * <p/>
+ * For the {@link CalibratedNormalSolver} the normals are linear in the captures, so
+ * every capture is added to the normals right away and none are left to solve after the
+ * last capture. For the {@link UncalibratedNormalSolver} the products with all captures
+ * before it are added to the Gram matrix, leaving the decomposition and projection.
+ * <p/>
+ * Pipelines are registered by the name of the capture, so the reconstruction can pick
+ * up the pipeline of its capture instead of reading the captures back.
+ */
+public class CapturePipeline {
+    private static final HashMap<String, CapturePipeline> sPipelines =
+        new HashMap<String, CapturePipeline>();
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+    private final int mNumImages;
+    private final int mMaskImage;
+    private final CalibratedNormalSolver mCalibrated;
+    /* only touched by the background thread until it has terminated */
+    private Preprocessor mPreprocessor;
+    private UncalibratedNormalSolver mSolver;
+    private float[] mRawNormals;
+
+    /**
+     * @param numImages  number of captures without the ambient one
+     * @param maskImage  index of the capture the foreground mask is computed from
+     * @param calibrated solver the normals are estimated with, or null if the
+     *                   reconstruction uses the {@link UncalibratedNormalSolver}
+     */
+    public CapturePipeline(int numImages, int maskImage,
+        CalibratedNormalSolver calibrated) {
+        mNumImages = numImages;
+        mMaskImage = maskImage;
+        mCalibrated = calibrated;
+    }
+
+    public static void register(String name, CapturePipeline pipeline) {
+        synchronized (sPipelines) {
+            sPipelines.put(name, pipeline);
+        }
+    }
+
+    /**
+     * @return the pipeline registered for the capture, which is unregistered, or null
+     */
+    public static CapturePipeline take(String name) {
+        synchronized (sPipelines) {
+            return sPipelines.remove(name);
+        }
+    }
+
+    /**
+     * Queues a capture, can be called from any thread. Captures have to be submitted in
+     * the order of their indices
+     *
+     * @param index 0 for the ambient capture, k + 1 for the capture of light source k
+     */
+    public void submit(final int index, final LuminancePlane capture) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (index == 0) {
+                    mPreprocessor = new Preprocessor(
+                        capture.width, capture.height, mNumImages, mMaskImage);
+                    if (mCalibrated != null) {
+                        mRawNormals = new float[4 * capture.width * capture.height];
+                    } else {
+                        mSolver = new UncalibratedNormalSolver(mNumImages);
+                    }
+                    mPreprocessor.setAmbient(capture);
+                } else {
+                    addImage(index - 1, capture);
+                }
+            }
+        });
+    }
+
+    private void addImage(int k, LuminancePlane capture) {
+        mPreprocessor.addImage(k, capture);
+        byte[] image = mPreprocessor.getImage(k).data;
+        if (mCalibrated != null) {
+            mCalibrated.accumulate(k, image, mRawNormals);
+            if (k == mNumImages - 1) {
+                mCalibrated.computeAlbedo(mRawNormals);
+            }
+            return;
+        }
+
+        for (int r = 0; r <= k; r++) {
+            byte[] other = mPreprocessor.getImage(r).data;
+            /* exact, products of 8 bit values don't overflow a long for any image size
+             * a camera delivers */
+            long product = 0;
+            for (int i = 0; i < image.length; i++) {
+                product += (other[i] & 0xFF) * (image[i] & 0xFF);
+            }
+            mSolver.accumulateProduct(r, k, product);
+        }
+    }
+
+    /**
+     * Has to be called after the last capture has been submitted
+     */
+    public void finish() {
+        mExecutor.shutdown();
+    }
+
+    /**
+     * Drops the queued captures
+     */
+    public void cancel() {
+        mExecutor.shutdownNow();
+    }
+
+    /**
+     * Waits until all captures have been processed
+     *
+     * @return false if the pipeline did not finish within the timeout or was cancelled
+     */
+    public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+        return mExecutor.awaitTermination(timeout, unit) && mPreprocessor != null
+            && mPreprocessor.isComplete();
+    }
+
+    /**
+     * @return the preprocessed captures, only valid after {@link #await} returned true
+     */
+    public Preprocessor getPreprocessor() {
+        return mPreprocessor;
+    }
+
+    /**
+     * @return solver holding the Gram matrix of all captures, null if the pipeline was
+     * created for a calibrated solver. Only valid after {@link #await} returned true
+     */
+    public UncalibratedNormalSolver getSolver() {
+        return mSolver;
+    }
+
+    /**
+     * @return normals of all pixels as solved by the calibrated solver, 4 floats per
+     * pixel, null if the pipeline was created without one. Only valid after
+     * {@link #await} returned true
+     */
+    public float[] getRawNormals() {
+        return mRawNormals;
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Objectify. Copyright (c) 2011-2016. Kai Wolf. All rights reserved.
+ * Redistribution and use in source form with or without modification is not permitted.
+ */
+
+package de.hsrm.objectify.reconstruction;
+
+/**
+ * Frankot-Chellappa integration in the frequency domain. Projects the gradient field
+ * given by the normals onto the closest integrable surface with a single forward and
+ * inverse FFT, i.e. in O(N log N) and without any iteration count to tune. Uses the
+ * transfer functions of the forward differences instead of the continuous derivatives,
+ * so the result is the exact least-squares solution of the discrete problem.
+ * <p/>
+ * The gradients are read the same way as by lh_integration. Pixels outside of the mask
+ * contribute a zero gradient and are set to the lowest height inside the mask after the
+ * integration, which leaves a flat background. The image is zero-padded to the next
+ * power of two with at least one pixel of margin to keep the periodic boundary of the
+ * transform from coupling opposite image borders.
+ */
+public class FrankotChellappaIntegrator implements HeightfieldIntegrator {
+    /* offset of the encoded normal components written by compute_normals */
+    private static final float NORMAL_OFFSET = 128.0f;
+
+    @Override
+    public float[] integrate(float[] normals, int width, int height) {
+        int fw = nextPowerOfTwo(width + 1);
+        int fh = nextPowerOfTwo(height + 1);
+        float[] pRe = new float[fw * fh];
+        float[] pIm = new float[fw * fh];
+        float[] qRe = new float[fw * fh];
+        float[] qIm = new float[fw * fh];
+
+        /* gradients in x and y direction, zero outside of the mask */
+        boolean any = false;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int i = y * width + x;
+                if (normals[4 * i + 3] != 1.0f) {
+                    continue;
+                }
+                pRe[y * fw + x] = normals[4 * i + 1] - NORMAL_OFFSET;
+                qRe[y * fw + x] = normals[4 * i] - NORMAL_OFFSET;
+                any = true;
+            }
+        }
+
+        float[] heights = new float[width * height];
+        if (!any) {
+            return heights;
+        }
+
+        fft2d(pRe, pIm, fw, fh, false);
+        fft2d(qRe, qIm, fw, fh, false);
+
+        /* Z = (conj(Dx) P + conj(Dy) Q) / (|Dx|^2 + |Dy|^2) with D = exp(i w) - 1 */
+        float[] cosX = new float[fw];
+        float[] sinX = new float[fw];
+        float[] cosY = new float[fh];
+        float[] sinY = new float[fh];
+        twiddles(cosX, sinX, fw);
+        twiddles(cosY, sinY, fh);
+        for (int v = 0; v < fh; v++) {
+            float dyRe = cosY[v] - 1.0f;
+            float dyIm = sinY[v];
+            for (int u = 0; u < fw; u++) {
+                int i = v * fw + u;
+                float dxRe = cosX[u] - 1.0f;
+                float dxIm = sinX[u];
+                float denom = dxRe * dxRe + dxIm * dxIm + dyRe * dyRe + dyIm * dyIm;
+                if (denom == 0.0f) {
+                    pRe[i] = 0.0f;
+                    pIm[i] = 0.0f;
+                    continue;
+                }
+                float re = dxRe * pRe[i] + dxIm * pIm[i] + dyRe * qRe[i] + dyIm * qIm[i];
+                float im = dxRe * pIm[i] - dxIm * pRe[i] + dyRe * qIm[i] - dyIm * qRe[i];
+                pRe[i] = re / denom;
+                pIm[i] = im / denom;
+            }
+        }
+
+        fft2d(pRe, pIm, fw, fh, true);
+
+        /* crop and flatten the background to the lowest height inside the mask */
+        float min = Float.MAX_VALUE;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int i = y * width + x;
+                heights[i] = pRe[y * fw + x];
+                if (normals[4 * i + 3] == 1.0f && heights[i] < min) {
+                    min = heights[i];
+                }
+            }
+        }
+        for (int i = 0; i < heights.length; i++) {
+            if (normals[4 * i + 3] != 1.0f) {
+                heights[i] = min;
+            }
+        }
+
+        return heights;
+    }
+
+    private static int nextPowerOfTwo(int n) {
+        int p = 1;
+        while (p < n) {
+            p <<= 1;
+        }
+        return p;
+    }
+
+    private static void twiddles(float[] cos, float[] sin, int n) {
+        for (int k = 0; k < n; k++) {
+            double w = 2.0 * Math.PI * k / n;
+            cos[k] = (float) Math.cos(w);
+            sin[k] = (float) Math.sin(w);
+        }
+    }
+
+    /**
+     * In-place two-dimensional FFT of a row-major array, width and height have to be
+     * powers of two. The inverse transform is scaled by 1 / (width * height)
+     */
+    private static void fft2d(float[] re, float[] im, int width, int height,
+        boolean inverse) {
+        float[] cos = new float[Math.max(width, height) / 2];
+        float[] sin = new float[cos.length];
+
+        roots(cos, sin, width, inverse);
+        for (int y = 0; y < height; y++) {
+            fft(re, im, y * width, 1, width, cos, sin);
+        }
+
+        roots(cos, sin, height, inverse);
+        for (int x = 0; x < width; x++) {
+            fft(re, im, x, width, height, cos, sin);
+        }
+
+        if (inverse) {
+            float scale = 1.0f / (width * height);
+            for (int i = 0; i < re.length; i++) {
+                re[i] *= scale;
+                im[i] *= scale;
+            }
+        }
+    }
+
+    private static void roots(float[] cos, float[] sin, int n, boolean inverse) {
+        double sign = inverse ? 1.0 : -1.0;
+        for (int k = 0; k < n / 2; k++) {
+            double w = sign * 2.0 * Math.PI * k / n;
+            cos[k] = (float) Math.cos(w);
+            sin[k] = (float) Math.sin(w);
+        }
+    }
+
+    /**
+     * Iterative radix-2 FFT of n elements, starting at offset with the given stride
+     */
+    private static void fft(float[] re, float[] im, int offset, int stride, int n,
+        float[] cos, float[] sin) {
+        /* bit reversal permutation */
+        for (int i = 1, j = 0; i < n; i++) {
+            int bit = n >> 1;
+            for (; (j & bit) != 0; bit >>= 1) {
+                j ^= bit;
+            }
+            j ^= bit;
+            if (i < j) {
+                int a = offset + i * stride;
+                int b = offset + j * stride;
+                float t = re[a];
+                re[a] = re[b];
+                re[b] = t;
+                t = im[a];
+                im[a] = im[b];
+                im[b] = t;
+            }
+        }
+
+        for (int len = 2; len <= n; len <<= 1) {
+            int half = len >> 1;
+            int step = n / len;
+            for (int i = 0; i < n; i += len) {
+                for (int k = 0; k < half; k++) {
+                    float wr = cos[k * step];
+                    float wi = sin[k * step];
+                    int a = offset + (i + k) * stride;
+                    int b = a + half * stride;
+                    float xr = re[b] * wr - im[b] * wi;
+                    float xi = re[b] * wi + im[b] * wr;
+                    re[b] = re[a] - xr;
+                    im[b] = im[a] - xi;
+                    re[a] += xr;
+                    im[a] += xi;
+                }
+            }
+        }
+    }
+}
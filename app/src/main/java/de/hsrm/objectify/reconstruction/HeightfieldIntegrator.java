@@ -0,0 +1,20 @@
+/*
+ * Objectify. Copyright (c) 2011-2016. Kai Wolf. All rights reserved.
+ * Redistribution and use in source form with or without modification is not permitted.
+ */
+
+package de.hsrm.objectify.reconstruction;
+
+/**
+ * Integrates a field of surface normals to a local heightfield
+ */
+public interface HeightfieldIntegrator {
+    /**
+     * @param normals encoded normals as written by compute_normals, 4 floats per pixel
+     *                with the validity flag of the pixel in the fourth component
+     * @param width   image width
+     * @param height  image height
+     * @return heights, one per pixel
+     */
+    float[] integrate(float[] normals, int width, int height);
+}
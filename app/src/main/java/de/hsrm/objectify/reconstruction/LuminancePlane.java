@@ -0,0 +1,232 @@
+/*
+ * Objectify. Copyright (c) 2011-2016. Kai Wolf. All rights reserved.
+ * Redistribution and use in source form with or without modification is not permitted.
+ */
+
+package de.hsrm.objectify.reconstruction;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Grayscale image with one unsigned byte of luminance per pixel, row by row. Captures
+ * are kept in this form from the camera to the normal solvers, ARGB pixels only exist
+ * where images are shown.
+ * <p/>
+ * Planes are stored in files of a 16 byte header, holding magic, version, width and
+ * height as little-endian ints, followed by the pixels.
+ */
+public class LuminancePlane {
+    public static final int VERSION = 1;
+    /* "LUMA" read as little-endian int */
+    private static final int MAGIC = 0x414D554C;
+    private static final int HEADER_SIZE = 16;
+    public final int width;
+    public final int height;
+    public final byte[] data;
+
+    public LuminancePlane(int width, int height) {
+        this(width, height, new byte[width * height]);
+    }
+
+    public LuminancePlane(int width, int height, byte[] data) {
+        if (data.length != width * height) {
+            throw new IllegalArgumentException("Plane of " + width + "x" + height
+                + " pixels can't hold " + data.length + " bytes");
+        }
+        this.width = width;
+        this.height = height;
+        this.data = data;
+    }
+
+    /**
+     * @param pixels ARGB pixels, converted with the luminance weights of
+     *               {@link PixelUtils}
+     */
+    public static LuminancePlane fromArgb(int[] pixels, int width, int height) {
+        LuminancePlane plane = new LuminancePlane(width, height);
+        for (int i = 0; i < plane.data.length; i++) {
+            plane.data[i] = (byte) PixelUtils.getIntensity(pixels[i]);
+        }
+
+        return plane;
+    }
+
+    /**
+     * Copies a luminance plane of another orientation, e.g. the Y plane of a camera
+     * preview frame, by remapping the pixel indices. The image is rotated first and
+     * mirrored horizontally afterwards.
+     *
+     * @param luminance one byte per pixel, row by row. Bytes beyond width * height, like
+     *                  the chroma planes of a NV21 frame, are ignored
+     * @param rotation  clockwise rotation in degrees, a multiple of 90
+     * @param mirror    true to flip the rotated image horizontally
+     */
+    public static LuminancePlane fromOriented(byte[] luminance, int width, int height,
+        int rotation, boolean mirror) {
+        boolean swap = rotation % 180 != 0;
+        int outWidth = swap ? height : width;
+        int outHeight = swap ? width : height;
+        LuminancePlane plane = new LuminancePlane(outWidth, outHeight);
+
+        /* the target index is linear in x and y, only origin and steps are needed */
+        int origin = orientedIndex(0, 0, width, height, rotation, mirror);
+        int stepX = orientedIndex(1, 0, width, height, rotation, mirror) - origin;
+        int stepY = orientedIndex(0, 1, width, height, rotation, mirror) - origin;
+        byte[] data = plane.data;
+        for (int y = 0; y < height; y++) {
+            int target = origin + y * stepY;
+            int source = y * width;
+            for (int x = 0; x < width; x++) {
+                data[target] = luminance[source + x];
+                target += stepX;
+            }
+        }
+
+        return plane;
+    }
+
+    private static int orientedIndex(int x, int y, int width, int height, int rotation,
+        boolean mirror) {
+        int outX, outY, outWidth;
+        switch ((rotation % 360 + 360) % 360) {
+            case 90:
+                outX = height - 1 - y;
+                outY = x;
+                outWidth = height;
+                break;
+            case 180:
+                outX = width - 1 - x;
+                outY = height - 1 - y;
+                outWidth = width;
+                break;
+            case 270:
+                outX = y;
+                outY = width - 1 - x;
+                outWidth = height;
+                break;
+            case 0:
+                outX = x;
+                outY = y;
+                outWidth = width;
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported rotation " + rotation);
+        }
+        if (mirror) {
+            outX = outWidth - 1 - outX;
+        }
+
+        return outY * outWidth + outX;
+    }
+
+    /**
+     * @return opaque gray ARGB pixels, for display only
+     */
+    public int[] toArgb() {
+        int[] pixels = new int[data.length];
+        for (int i = 0; i < data.length; i++) {
+            pixels[i] = PixelUtils.gray(data[i] & 0xFF);
+        }
+
+        return pixels;
+    }
+
+    /**
+     * @return luminance of pixel i in [0, 255]
+     */
+    public int get(int i) {
+        return data[i] & 0xFF;
+    }
+
+    public LuminancePlane copy() {
+        return new LuminancePlane(width, height, data.clone());
+    }
+
+    /**
+     * Subtracts the luminance of the ambient plane, clamped at 0, in place
+     */
+    public void subtract(LuminancePlane ambient) {
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) Math.max((data[i] & 0xFF) - (ambient.data[i] & 0xFF), 0);
+        }
+    }
+
+    public int[] getHistogram() {
+        int[] histogram = new int[256];
+        for (int i = 0; i < data.length; i++) {
+            histogram[data[i] & 0xFF] += 1;
+        }
+
+        return histogram;
+    }
+
+    /**
+     * Sets the pixels brighter than the Otsu threshold to 255 and all others to 0, in
+     * place
+     */
+    public void binarize() {
+        int threshold = PixelUtils.getOtsuThreshold(getHistogram(), data.length);
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (data[i] & 0xFF) > threshold ? (byte) 255 : 0;
+        }
+    }
+
+    public void write(File file) throws IOException {
+        ByteBuffer header =
+            ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(width).putInt(height);
+        header.flip();
+        ByteBuffer[] buffers = {header, ByteBuffer.wrap(data)};
+
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            FileChannel channel = out.getChannel();
+            while (buffers[1].hasRemaining()) {
+                channel.write(buffers);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    public static LuminancePlane read(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            ByteBuffer header =
+                ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, header, file);
+            if (header.getInt() != MAGIC) {
+                throw new IOException("not a luminance plane " + file);
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException("unsupported luminance plane version " + version);
+            }
+            int width = header.getInt();
+            int height = header.getInt();
+
+            byte[] data = new byte[width * height];
+            readFully(channel, ByteBuffer.wrap(data), file);
+            return new LuminancePlane(width, height, data);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, File file)
+        throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new IOException("truncated luminance plane " + file);
+            }
+        }
+        buffer.flip();
+    }
+}
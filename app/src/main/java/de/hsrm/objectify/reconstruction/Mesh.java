@@ -0,0 +1,74 @@
+/*
+ * Objectify. Copyright (c) 2011-2016. Kai Wolf. All rights reserved.
+ * Redistribution and use in source form with or without modification is not permitted.
+ */
+
+package de.hsrm.objectify.reconstruction;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * Triangle mesh held in direct, native ordered buffers, ready to be handed to OpenGL.
+ * Vertices and normals hold 3 floats per vertex, indices 3 ints per triangle
+ */
+public class Mesh {
+    public final FloatBuffer vertices;
+    public final FloatBuffer normals;
+    public final IntBuffer indices;
+    private float[] mBounds;
+
+    public Mesh(FloatBuffer vertices, FloatBuffer normals, IntBuffer indices) {
+        this(vertices, normals, indices, null);
+    }
+
+    /**
+     * @param bounds bounding box as returned by {@link #getBounds}, computed if null
+     */
+    public Mesh(FloatBuffer vertices, FloatBuffer normals, IntBuffer indices,
+        float[] bounds) {
+        this.vertices = vertices;
+        this.normals = normals;
+        this.indices = indices;
+        mBounds = bounds;
+    }
+
+    /**
+     * @return axis aligned bounding box as min x, max x, min y, max y, min z, max z
+     */
+    public float[] getBounds() {
+        if (mBounds == null) {
+            mBounds = new float[] {Float.MAX_VALUE, -Float.MAX_VALUE, Float.MAX_VALUE,
+                -Float.MAX_VALUE, Float.MAX_VALUE, -Float.MAX_VALUE};
+            for (int i = 0; i < vertices.capacity(); i++) {
+                float v = vertices.get(i);
+                int axis = 2 * (i % 3);
+                mBounds[axis] = Math.min(mBounds[axis], v);
+                mBounds[axis + 1] = Math.max(mBounds[axis + 1], v);
+            }
+        }
+        return mBounds;
+    }
+
+    public int getVertexCount() {
+        return vertices.capacity() / 3;
+    }
+
+    public int getFaceCount() {
+        return indices.capacity() / 3;
+    }
+
+    public static FloatBuffer allocateFloats(int count) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(count * 4);
+        buffer.order(ByteOrder.nativeOrder());
+        return buffer.asFloatBuffer();
+    }
+
+    public static IntBuffer allocateInts(int count) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(count * 4);
+        buffer.order(ByteOrder.nativeOrder());
+        return buffer.asIntBuffer();
+    }
+}
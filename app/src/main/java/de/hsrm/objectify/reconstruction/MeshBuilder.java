@@ -0,0 +1,141 @@
+/*
+ * Objectify. Copyright (c) 2011-2016. Kai Wolf. All rights reserved.
+ * Redistribution and use in source form with or without modification is not permitted.
+ */
+
+package de.hsrm.objectify.reconstruction;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * Triangulates a heightfield into a {@link Mesh}. Every pixel becomes a vertex at
+ * (x, y, height), every quad of neighbouring pixels two triangles. The sizes of all
+ * buffers are known up front, so the mesh is written in a single pass without any
+ * intermediate objects.
+ * <p/>
+ * The vertex normals are computed from central differences of the integrated heights,
+ * not taken from the photometric normals. They are therefore as smooth as the surface
+ * the mesh shows, detail the integration could not reproduce is lost for the shading.
+ * <p/>
+ * Given a foreground mask, a quad is only emitted if all four of its corner pixels are
+ * foreground, and only the vertices used by the emitted quads are kept. Vertex indices
+ * are compacted, so the size of the mesh depends on the object and not on the image.
+ * <p/>
+ * Coarser meshes are built by sampling every step-th pixel only. Their vertices keep
+ * the pixel coordinates, so all resolutions of a heightfield share the same extent.
+ */
+public class MeshBuilder {
+    private MeshBuilder() {
+    }
+
+    public static Mesh build(float[] heights, int width, int height) {
+        return build(heights, null, width, height);
+    }
+
+    /**
+     * @param foreground pixels to triangulate, all pixels if null
+     */
+    public static Mesh build(float[] heights, boolean[] foreground, int width,
+        int height) {
+        return build(heights, foreground, width, height, 1);
+    }
+
+    /**
+     * @param foreground pixels to triangulate, all pixels if null
+     * @param step       distance of the sampled pixels, 1 for the full resolution
+     */
+    public static Mesh build(float[] heights, boolean[] foreground, int width,
+        int height, int step) {
+        /* count the emitted faces and assign compact indices to the used vertices */
+        int[] remap = new int[width * height];
+        Arrays.fill(remap, -1);
+        int faceCount = 0;
+        for (int y = 0; y < height - step; y += step) {
+            for (int x = 0; x < width - step; x += step) {
+                int index = y * width + x;
+                if (isQuadVisible(foreground, index, width, step)) {
+                    remap[index] = 0;
+                    remap[index + step] = 0;
+                    remap[index + step * width] = 0;
+                    remap[index + step * width + step] = 0;
+                    faceCount += 2;
+                }
+            }
+        }
+        int vertexCount = 0;
+        for (int i = 0; i < remap.length; i++) {
+            if (remap[i] == 0) {
+                remap[i] = vertexCount++;
+            }
+        }
+
+        FloatBuffer vertices = Mesh.allocateFloats(3 * vertexCount);
+        FloatBuffer normals = Mesh.allocateFloats(3 * vertexCount);
+        IntBuffer indices = Mesh.allocateInts(3 * faceCount);
+
+        /* vertices and normals */
+        for (int y = 0; y < height; y += step) {
+            for (int x = 0; x < width; x += step) {
+                if (remap[y * width + x] < 0) {
+                    continue;
+                }
+                vertices.put(x).put(y).put(heights[y * width + x]);
+                putNormal(normals, heights, width, height, x, y);
+            }
+        }
+
+        /* faces */
+        for (int y = 0; y < height - step; y += step) {
+            for (int x = 0; x < width - step; x += step) {
+                int index = y * width + x;
+                if (!isQuadVisible(foreground, index, width, step)) {
+                    continue;
+                }
+                int topLeft = remap[index];
+                int topRight = remap[index + step];
+                int bottomLeft = remap[index + step * width];
+                int bottomRight = remap[index + step * width + step];
+                indices.put(topLeft).put(bottomLeft).put(topRight);
+                indices.put(topRight).put(bottomLeft).put(bottomRight);
+            }
+        }
+
+        vertices.rewind();
+        normals.rewind();
+        indices.rewind();
+        return new Mesh(vertices, normals, indices);
+    }
+
+    private static boolean isQuadVisible(
+        boolean[] foreground, int index, int width, int step) {
+        int below = index + step * width;
+        return foreground == null
+            || (foreground[index] && foreground[index + step] && foreground[below]
+                   && foreground[below + step]);
+    }
+
+    /**
+     * Normal of the heightfield at (x, y) from central differences, one-sided at the
+     * image border
+     */
+    static void putNormal(FloatBuffer normals, float[] heights, int width,
+        int height, int x, int y) {
+        int x0 = Math.max(x - 1, 0);
+        int x1 = Math.min(x + 1, width - 1);
+        int y0 = Math.max(y - 1, 0);
+        int y1 = Math.min(y + 1, height - 1);
+        float dx = 0.0f;
+        if (x1 > x0) {
+            dx = (heights[y * width + x1] - heights[y * width + x0]) / (x1 - x0);
+        }
+        float dy = 0.0f;
+        if (y1 > y0) {
+            dy = (heights[y1 * width + x] - heights[y0 * width + x]) / (y1 - y0);
+        }
+        float length = (float) Math.sqrt(dx * dx + dy * dy + 1.0f);
+
+        normals.put(-dx / length).put(-dy / length).put(1.0f / length);
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * Objectify. Copyright (c) 2011-2016. Kai Wolf. All rights reserved.
+ * Redistribution and use in source form with or without modification is not permitted.
+ */
+
+package de.hsrm.objectify.reconstruction;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * Adaptive triangulation of a heightfield (right-triangulated irregular network). The
+ * heightfield is covered by a grid of 2^k + 1 pixels, which is recursively split into
+ * right triangles along the midpoint of their longest edge. A triangle is split as long
+ * as the height at that midpoint, or anywhere below it in the hierarchy, deviates more
+ * than the error bound from the linear interpolation. Flat regions therefore collapse
+ * into a few large triangles while detailed regions keep the full resolution, and the
+ * hierarchy guarantees a mesh without cracks.
+ * <p/>
+ * Pixels outside of the image or the foreground have an infinite error, so the outline
+ * of the object is always kept at full resolution. Only triangles with all corners in the
+ * foreground are emitted. The errors are computed once, meshes for several error bounds
+ * can be built from a single instance.
+ * <p/>
+ * Like {@link MeshBuilder}, coarser meshes are built by sampling every step-th pixel
+ * only. Their vertices keep the pixel coordinates, so the smallest triangles span step
+ * pixels, the outline included.
+ */
+public class MeshDecimator {
+    private final float[] mHeights;
+    private final boolean[] mForeground;
+    private final int mImageWidth;
+    private final int mImageHeight;
+    private final int mStep;
+    /* number of sampled pixels per row and column */
+    private final int mWidth;
+    private final int mHeight;
+    private final int mSize;
+    private final float[] mErrors;
+    private final int[] mIndices;
+    private float mMaxError;
+    private int mFaceCount;
+    private IntBuffer mFaces;
+
+    /**
+     * @param foreground pixels to triangulate, all pixels if null
+     */
+    public MeshDecimator(float[] heights, boolean[] foreground, int width, int height) {
+        this(heights, foreground, width, height, 1);
+    }
+
+    /**
+     * @param foreground pixels to triangulate, all pixels if null
+     * @param step       distance of the sampled pixels, 1 for the full resolution
+     */
+    public MeshDecimator(float[] heights, boolean[] foreground, int width, int height,
+        int step) {
+        mHeights = heights;
+        mForeground = foreground;
+        mImageWidth = width;
+        mImageHeight = height;
+        mStep = step;
+        mWidth = (width - 1) / step + 1;
+        mHeight = (height - 1) / step + 1;
+
+        int tileSize = 1;
+        while (tileSize < Math.max(mWidth, mHeight) - 1) {
+            tileSize <<= 1;
+        }
+        mSize = tileSize + 1;
+        mErrors = new float[mSize * mSize];
+        mIndices = new int[mSize * mSize];
+        computeErrors(tileSize);
+    }
+
+    /**
+     * Error of every triangle, stored at the midpoint of its longest edge and
+     * accumulated bottom-up from the smallest triangles. Triangles are enumerated as an
+     * implicit binary tree
+     */
+    private void computeErrors(int tileSize) {
+        int smallestTriangles = tileSize * tileSize;
+        int triangles = smallestTriangles * 2 - 2;
+        int lastLevel = triangles - smallestTriangles;
+
+        for (int i = triangles - 1; i >= 0; i--) {
+            int id = i + 2;
+            int ax = 0, ay = 0, bx = 0, by = 0, cx = 0, cy = 0;
+            if ((id & 1) != 0) {
+                bx = by = cx = tileSize;
+            } else {
+                ax = ay = cy = tileSize;
+            }
+            while ((id >>= 1) > 1) {
+                int mx = (ax + bx) >> 1;
+                int my = (ay + by) >> 1;
+                if ((id & 1) != 0) {
+                    bx = ax;
+                    by = ay;
+                    ax = cx;
+                    ay = cy;
+                } else {
+                    ax = bx;
+                    ay = by;
+                    bx = cx;
+                    by = cy;
+                }
+                cx = mx;
+                cy = my;
+            }
+
+            int mx = (ax + bx) >> 1;
+            int my = (ay + by) >> 1;
+            int middle = my * mSize + mx;
+            float error;
+            if (isValid(ax, ay) && isValid(bx, by) && isValid(cx, cy)
+                && isValid(mx, my)) {
+                float interpolated = (height(ax, ay) + height(bx, by)) / 2.0f;
+                error = Math.abs(interpolated - height(mx, my));
+            } else {
+                error = Float.POSITIVE_INFINITY;
+            }
+
+            if (i < lastLevel) {
+                float left = mErrors[((ay + cy) >> 1) * mSize + ((ax + cx) >> 1)];
+                float right = mErrors[((by + cy) >> 1) * mSize + ((bx + cx) >> 1)];
+                error = Math.max(error, Math.max(left, right));
+            }
+            mErrors[middle] = Math.max(mErrors[middle], error);
+        }
+    }
+
+    /**
+     * @param maxError largest allowed deviation from the heightfield
+     */
+    public Mesh build(float maxError) {
+        mMaxError = maxError;
+        int max = mSize - 1;
+
+        /* mark the used vertices and count the faces */
+        Arrays.fill(mIndices, -1);
+        mFaceCount = 0;
+        mFaces = null;
+        processTriangle(0, 0, max, max, max, 0);
+        processTriangle(max, max, 0, 0, 0, max);
+
+        /* number the vertices in row order, like a regular grid */
+        int vertexCount = 0;
+        for (int i = 0; i < mIndices.length; i++) {
+            if (mIndices[i] == 0) {
+                mIndices[i] = vertexCount++;
+            }
+        }
+
+        FloatBuffer vertices = Mesh.allocateFloats(3 * vertexCount);
+        FloatBuffer normals = Mesh.allocateFloats(3 * vertexCount);
+        for (int y = 0; y < mHeight; y++) {
+            for (int x = 0; x < mWidth; x++) {
+                if (mIndices[y * mSize + x] < 0) {
+                    continue;
+                }
+                int px = x * mStep;
+                int py = y * mStep;
+                vertices.put(px).put(py).put(height(x, y));
+                MeshBuilder.putNormal(
+                    normals, mHeights, mImageWidth, mImageHeight, px, py);
+            }
+        }
+
+        mFaces = Mesh.allocateInts(3 * mFaceCount);
+        processTriangle(0, 0, max, max, max, 0);
+        processTriangle(max, max, 0, 0, 0, max);
+
+        vertices.rewind();
+        normals.rewind();
+        mFaces.rewind();
+        Mesh mesh = new Mesh(vertices, normals, mFaces);
+        mFaces = null;
+        return mesh;
+    }
+
+    /**
+     * Either splits the triangle with the right angle at c or emits it. Counts faces
+     * and marks their vertices as long as no face buffer is set
+     */
+    private void processTriangle(int ax, int ay, int bx, int by, int cx, int cy) {
+        int mx = (ax + bx) >> 1;
+        int my = (ay + by) >> 1;
+        if (Math.abs(ax - cx) + Math.abs(ay - cy) > 1
+            && mErrors[my * mSize + mx] > mMaxError) {
+            processTriangle(cx, cy, ax, ay, mx, my);
+            processTriangle(bx, by, cx, cy, mx, my);
+            return;
+        }
+        if (!isValid(ax, ay) || !isValid(bx, by) || !isValid(cx, cy)) {
+            return;
+        }
+
+        int a = ay * mSize + ax;
+        int b = by * mSize + bx;
+        int c = cy * mSize + cx;
+        if (mFaces == null) {
+            mIndices[a] = 0;
+            mIndices[b] = 0;
+            mIndices[c] = 0;
+            mFaceCount++;
+            return;
+        }
+
+        /* same winding as the triangles of a regular grid */
+        if ((bx - ax) * (cy - ay) - (by - ay) * (cx - ax) < 0) {
+            mFaces.put(mIndices[a]).put(mIndices[b]).put(mIndices[c]);
+        } else {
+            mFaces.put(mIndices[a]).put(mIndices[c]).put(mIndices[b]);
+        }
+    }
+
+    private boolean isValid(int x, int y) {
+        return x < mWidth && y < mHeight
+            && (mForeground == null || mForeground[y * mStep * mImageWidth + x * mStep]);
+    }
+
+    private float height(int x, int y) {
+        return mHeights[y * mStep * mImageWidth + x * mStep];
+    }
+}
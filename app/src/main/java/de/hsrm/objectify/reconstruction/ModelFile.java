@@ -0,0 +1,449 @@
+/*
+ * Objectify. Copyright (c) 2011-2016. Kai Wolf. All rights reserved.
+ * Redistribution and use in source form with or without modification is not permitted.
+ */
+
+package de.hsrm.objectify.reconstruction;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Binary container for a {@link Mesh}. All values are little-endian:
+ * <pre>
+ *  0  magic "OBJY"
+ *  4  version
+ *  8  encoding of the blocks
+ * 12  vertex count
+ * 16  face count
+ * 20  bounding box, 6 floats as returned by {@link Mesh#getBounds}
+ * 44  three ints depending on the encoding
+ * 56  reserved up to {@link #HEADER_SIZE}
+ * </pre>
+ * The raw encoding stores the byte offsets of the vertex, normal and index block in the
+ * header, followed by the blocks: 3 floats per vertex, 3 floats per normal and 3 ints
+ * per face. Such a file is read by mapping it into memory, the buffers of the loaded mesh
+ * point straight into the mapping.
+ * <p/>
+ * The quantized encoding makes use of the vertices lying on the pixel grid. It stores
+ * the offset, compressed and uncompressed size of a single deflated block holding the
+ * grid size, the delta coded grid positions of the vertices, 16 bit heights relative to
+ * the bounding box, octahedron encoded normals with 8 bits per component and the delta
+ * coded indices. Meshes with vertices off the grid are written in the raw encoding.
+ * <p/>
+ * Files are written with a single channel write.
+ */
+public class ModelFile {
+    public static final int VERSION = 1;
+    public static final int ENCODING_RAW = 0;
+    public static final int ENCODING_QUANTIZED = 1;
+    /* "OBJY" read as little-endian int */
+    private static final int MAGIC = 0x594A424F;
+    private static final int HEADER_SIZE = 64;
+
+    private ModelFile() {
+    }
+
+    /**
+     * @return true if the file starts with the magic of this format
+     */
+    public static boolean isModelFile(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            byte[] magic = new byte[4];
+            if (in.read(magic) != magic.length) {
+                return false;
+            }
+            ByteBuffer header = ByteBuffer.wrap(magic).order(ByteOrder.LITTLE_ENDIAN);
+            return header.getInt() == MAGIC;
+        } finally {
+            in.close();
+        }
+    }
+
+    public static void write(File file, Mesh mesh) throws IOException {
+        write(file, mesh, ENCODING_QUANTIZED);
+    }
+
+    public static void write(File file, Mesh mesh, int encoding) throws IOException {
+        if (encoding == ENCODING_QUANTIZED && isOnGrid(mesh)) {
+            writeQuantized(file, mesh);
+        } else {
+            writeRaw(file, mesh);
+        }
+    }
+
+    private static void writeRaw(File file, Mesh mesh) throws IOException {
+        int vertexBytes = 4 * mesh.vertices.capacity();
+        int normalBytes = 4 * mesh.normals.capacity();
+        int indexBytes = 4 * mesh.indices.capacity();
+        int vertexOffset = HEADER_SIZE;
+        int normalOffset = vertexOffset + vertexBytes;
+        int indexOffset = normalOffset + normalBytes;
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(indexOffset + indexBytes);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        putHeader(buffer, mesh, ENCODING_RAW, vertexOffset, normalOffset, indexOffset);
+
+        block(buffer, vertexOffset, vertexBytes)
+            .asFloatBuffer()
+            .put(rewound(mesh.vertices));
+        block(buffer, normalOffset, normalBytes)
+            .asFloatBuffer()
+            .put(rewound(mesh.normals));
+        block(buffer, indexOffset, indexBytes).asIntBuffer().put(rewound(mesh.indices));
+
+        buffer.clear();
+        writeFully(file, buffer);
+    }
+
+    private static void writeQuantized(File file, Mesh mesh) throws IOException {
+        float[] bounds = mesh.getBounds();
+        int vertexCount = mesh.getVertexCount();
+        int gridWidth = (int) bounds[1] + 1;
+        int gridHeight = (int) bounds[3] + 1;
+        float zScale = bounds[5] > bounds[4] ? 65535.0f / (bounds[5] - bounds[4]) : 0.0f;
+
+        Encoder encoder = new Encoder(8 * vertexCount + 3 * mesh.indices.capacity() + 16);
+        encoder.putVarint(gridWidth);
+        encoder.putVarint(gridHeight);
+        int previous = 0;
+        for (int i = 0; i < vertexCount; i++) {
+            int position = (int) mesh.vertices.get(3 * i + 1) * gridWidth
+                + (int) mesh.vertices.get(3 * i);
+            encoder.putSignedVarint(position - previous);
+            previous = position;
+        }
+        for (int i = 0; i < vertexCount; i++) {
+            float z = mesh.vertices.get(3 * i + 2);
+            encoder.putShort(Math.round((z - bounds[4]) * zScale));
+        }
+        for (int i = 0; i < vertexCount; i++) {
+            encoder.putOctahedron(mesh.normals.get(3 * i), mesh.normals.get(3 * i + 1),
+                mesh.normals.get(3 * i + 2));
+        }
+        previous = 0;
+        for (int i = 0; i < mesh.indices.capacity(); i++) {
+            int index = mesh.indices.get(i);
+            encoder.putSignedVarint(index - previous);
+            previous = index;
+        }
+
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        deflater.setInput(encoder.data, 0, encoder.size);
+        deflater.finish();
+        byte[] compressed = new byte[encoder.size + encoder.size / 1000 + 64];
+        int compressedSize = 0;
+        while (!deflater.finished()) {
+            if (compressedSize == compressed.length) {
+                byte[] grown = new byte[2 * compressed.length];
+                System.arraycopy(compressed, 0, grown, 0, compressedSize);
+                compressed = grown;
+            }
+            compressedSize += deflater.deflate(
+                compressed, compressedSize, compressed.length - compressedSize);
+        }
+        deflater.end();
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.order(ByteOrder.LITTLE_ENDIAN);
+        putHeader(header, mesh, ENCODING_QUANTIZED, HEADER_SIZE, compressedSize,
+            encoder.size);
+        header.clear();
+        writeFully(file, header, ByteBuffer.wrap(compressed, 0, compressedSize));
+    }
+
+    /**
+     * @return true if all vertices lie on the pixel grid, in front of the origin
+     */
+    private static boolean isOnGrid(Mesh mesh) {
+        float[] bounds = mesh.getBounds();
+        if (mesh.getVertexCount() == 0 || bounds[0] < 0.0f || bounds[2] < 0.0f) {
+            return false;
+        }
+        for (int i = 0; i < mesh.getVertexCount(); i++) {
+            float x = mesh.vertices.get(3 * i);
+            float y = mesh.vertices.get(3 * i + 1);
+            if (x != (int) x || y != (int) y) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void putHeader(ByteBuffer buffer, Mesh mesh, int encoding, int first,
+        int second, int third) {
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(encoding);
+        buffer.putInt(mesh.getVertexCount());
+        buffer.putInt(mesh.getFaceCount());
+        for (float bound : mesh.getBounds()) {
+            buffer.putFloat(bound);
+        }
+        buffer.putInt(first);
+        buffer.putInt(second);
+        buffer.putInt(third);
+    }
+
+    private static void writeFully(File file, ByteBuffer... buffers) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            FileChannel channel = out.getChannel();
+            while (buffers[buffers.length - 1].hasRemaining()) {
+                channel.write(buffers);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    public static Mesh read(File file) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = in.getChannel();
+            long size = channel.size();
+            if (size < HEADER_SIZE) {
+                throw new IOException("truncated model file " + file);
+            }
+
+            /* the mapping stays valid after the channel is closed */
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            map.order(ByteOrder.LITTLE_ENDIAN);
+            if (map.getInt() != MAGIC) {
+                throw new IOException("not a model file " + file);
+            }
+            int version = map.getInt();
+            int encoding = map.getInt();
+            if (version != VERSION
+                || (encoding != ENCODING_RAW && encoding != ENCODING_QUANTIZED)) {
+                throw new IOException("unsupported model file version " + version
+                    + ", encoding " + encoding);
+            }
+
+            int vertexCount = map.getInt();
+            int faceCount = map.getInt();
+            float[] bounds = new float[6];
+            for (int i = 0; i < bounds.length; i++) {
+                bounds[i] = map.getFloat();
+            }
+            if (encoding == ENCODING_QUANTIZED) {
+                return readQuantized(map, vertexCount, faceCount, bounds);
+            }
+            int vertexOffset = map.getInt();
+            int normalOffset = map.getInt();
+            int indexOffset = map.getInt();
+
+            FloatBuffer vertices =
+                block(map, vertexOffset, 12 * vertexCount).asFloatBuffer();
+            FloatBuffer normals =
+                block(map, normalOffset, 12 * vertexCount).asFloatBuffer();
+            IntBuffer indices = block(map, indexOffset, 12 * faceCount).asIntBuffer();
+
+            return new Mesh(vertices, normals, indices, bounds);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static Mesh readQuantized(ByteBuffer map, int vertexCount, int faceCount,
+        float[] bounds) throws IOException {
+        int offset = map.getInt();
+        int compressedSize = map.getInt();
+        int size = map.getInt();
+        byte[] compressed = new byte[compressedSize];
+        block(map, offset, compressedSize).get(compressed);
+
+        Decoder decoder = new Decoder(size);
+        Inflater inflater = new Inflater();
+        inflater.setInput(compressed);
+        try {
+            if (inflater.inflate(decoder.data) != size) {
+                throw new IOException("truncated model file");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("corrupt model file", e);
+        } finally {
+            inflater.end();
+        }
+
+        FloatBuffer vertices = Mesh.allocateFloats(3 * vertexCount);
+        FloatBuffer normals = Mesh.allocateFloats(3 * vertexCount);
+        IntBuffer indices = Mesh.allocateInts(3 * faceCount);
+        float zScale = (bounds[5] - bounds[4]) / 65535.0f;
+        int gridWidth = decoder.getVarint();
+        decoder.getVarint();
+        int position = 0;
+        for (int i = 0; i < vertexCount; i++) {
+            position += decoder.getSignedVarint();
+            vertices.put(3 * i, position % gridWidth);
+            vertices.put(3 * i + 1, position / gridWidth);
+        }
+        for (int i = 0; i < vertexCount; i++) {
+            vertices.put(3 * i + 2, bounds[4] + decoder.getShort() * zScale);
+        }
+        for (int i = 0; i < vertexCount; i++) {
+            decoder.getOctahedron(normals, 3 * i);
+        }
+        int index = 0;
+        for (int i = 0; i < indices.capacity(); i++) {
+            index += decoder.getSignedVarint();
+            if (index < 0 || index >= vertexCount) {
+                throw new IOException("corrupt model file");
+            }
+            indices.put(i, index);
+        }
+
+        return new Mesh(vertices, normals, indices, bounds);
+    }
+
+    /**
+     * @return little-endian view of length bytes of the buffer, starting at offset
+     */
+    private static ByteBuffer block(ByteBuffer buffer, int offset, int length)
+        throws IOException {
+        if (offset < 0 || length < 0 || offset > buffer.capacity() - length) {
+            throw new IOException("model file block out of range");
+        }
+        ByteBuffer view = buffer.duplicate();
+        view.limit(offset + length);
+        view.position(offset);
+        return view.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static FloatBuffer rewound(FloatBuffer buffer) {
+        FloatBuffer view = buffer.duplicate();
+        view.rewind();
+        return view;
+    }
+
+    private static IntBuffer rewound(IntBuffer buffer) {
+        IntBuffer view = buffer.duplicate();
+        view.rewind();
+        return view;
+    }
+
+    /**
+     * Growing byte array for the quantized encoding
+     */
+    private static class Encoder {
+        byte[] data;
+        int size;
+
+        Encoder(int capacity) {
+            data = new byte[capacity];
+        }
+
+        void putByte(int value) {
+            if (size == data.length) {
+                byte[] grown = new byte[2 * data.length];
+                System.arraycopy(data, 0, grown, 0, size);
+                data = grown;
+            }
+            data[size++] = (byte) value;
+        }
+
+        void putShort(int value) {
+            putByte(value);
+            putByte(value >>> 8);
+        }
+
+        void putVarint(int value) {
+            while ((value & ~0x7F) != 0) {
+                putByte((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            putByte(value);
+        }
+
+        /**
+         * Zigzag encoding, small negative values stay short
+         */
+        void putSignedVarint(int value) {
+            putVarint((value << 1) ^ (value >> 31));
+        }
+
+        /**
+         * Projects the unit vector onto an octahedron, unfolds the lower half into the
+         * corners of the plane and stores both coordinates with 8 bits
+         */
+        void putOctahedron(float x, float y, float z) {
+            float length = Math.abs(x) + Math.abs(y) + Math.abs(z);
+            float u = length > 0.0f ? x / length : 0.0f;
+            float v = length > 0.0f ? y / length : 0.0f;
+            if (z < 0.0f) {
+                float fu = (1.0f - Math.abs(v)) * (u < 0.0f ? -1.0f : 1.0f);
+                float fv = (1.0f - Math.abs(u)) * (v < 0.0f ? -1.0f : 1.0f);
+                u = fu;
+                v = fv;
+            }
+            putByte(Math.round((u * 0.5f + 0.5f) * 255.0f));
+            putByte(Math.round((v * 0.5f + 0.5f) * 255.0f));
+        }
+    }
+
+    private static class Decoder {
+        final byte[] data;
+        int position;
+
+        Decoder(int size) {
+            data = new byte[size];
+        }
+
+        int getByte() throws IOException {
+            if (position == data.length) {
+                throw new IOException("truncated model file");
+            }
+            return data[position++] & 0xFF;
+        }
+
+        int getShort() throws IOException {
+            return getByte() | (getByte() << 8);
+        }
+
+        int getVarint() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                int b = getByte();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("corrupt model file");
+        }
+
+        int getSignedVarint() throws IOException {
+            int value = getVarint();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        void getOctahedron(FloatBuffer normals, int offset) throws IOException {
+            float u = getByte() / 255.0f * 2.0f - 1.0f;
+            float v = getByte() / 255.0f * 2.0f - 1.0f;
+            float z = 1.0f - Math.abs(u) - Math.abs(v);
+            if (z < 0.0f) {
+                float fu = (1.0f - Math.abs(v)) * (u < 0.0f ? -1.0f : 1.0f);
+                float fv = (1.0f - Math.abs(u)) * (v < 0.0f ? -1.0f : 1.0f);
+                u = fu;
+                v = fv;
+            }
+            float length = (float) Math.sqrt(u * u + v * v + z * z);
+            normals.put(offset, u / length);
+            normals.put(offset + 1, v / length);
+            normals.put(offset + 2, z / length);
+        }
+    }
+}
@@ -0,0 +1,309 @@
+/*
+ * Objectify. Copyright (c) 2011-2016. Kai Wolf. All rights reserved.
+ * Redistribution and use in source form with or without modification is not permitted.
+ */
+
+package de.hsrm.objectify.reconstruction;
+
+import java.util.Arrays;
+
+/**
+ * Solves the masked Poisson equation of {@link PoissonSystem} with a conjugate gradient
+ * method, preconditioned by one multigrid V-cycle per iteration. Iterates until the
+ * residual, relative to the right-hand side, drops below the given tolerance.
+ * <p/>
+ * Coarse levels are built by aggregating 2x2 pixels (Galerkin operator with piecewise
+ * constant interpolation), so irregular masks are represented on every level. Smoothing
+ * is done with red-black Gauss-Seidel, reversed on the way up to keep the preconditioner
+ * symmetric.
+ */
+public class MultigridIntegrator implements HeightfieldIntegrator {
+    public static final float DEFAULT_TOLERANCE = 1.0e-3f;
+    public static final int DEFAULT_MAX_ITERATIONS = 100;
+    private static final int SMOOTHING_SWEEPS = 2;
+    private static final int COARSEST_SWEEPS = 40;
+    private static final int COARSEST_SIZE = 4;
+    private final float mTolerance;
+    private final int mMaxIterations;
+    private int mIterations;
+    private double mResidual;
+
+    public MultigridIntegrator() {
+        this(DEFAULT_TOLERANCE, DEFAULT_MAX_ITERATIONS);
+    }
+
+    /**
+     * @param tolerance     relative residual at which the iteration stops
+     * @param maxIterations upper bound for the number of conjugate gradient iterations
+     */
+    public MultigridIntegrator(float tolerance, int maxIterations) {
+        mTolerance = tolerance;
+        mMaxIterations = maxIterations;
+    }
+
+    /**
+     * @return number of iterations needed by the last call to {@link #integrate}
+     */
+    public int getIterations() {
+        return mIterations;
+    }
+
+    /**
+     * @return relative residual reached by the last call to {@link #integrate}
+     */
+    public double getResidual() {
+        return mResidual;
+    }
+
+    @Override
+    public float[] integrate(float[] normals, int width, int height) {
+        return solve(PoissonSystem.fromNormals(normals, width, height));
+    }
+
+    public float[] solve(PoissonSystem system) {
+        int n = system.width * system.height;
+        float[] x = new float[n];
+        mIterations = 0;
+        mResidual = 0.0;
+        if (system.activeCount == 0) {
+            return x;
+        }
+
+        Level fine = Level.fromSystem(system);
+        float[] b = system.rhs;
+        float[] r = new float[n];
+        float[] z = new float[n];
+        float[] p = new float[n];
+        float[] q = new float[n];
+        System.arraycopy(b, 0, r, 0, n);
+
+        double bNorm = Math.sqrt(dot(b, b));
+        if (bNorm == 0.0) {
+            return x;
+        }
+
+        fine.vCycle(r, z);
+        System.arraycopy(z, 0, p, 0, n);
+        double rz = dot(r, z);
+        mResidual = 1.0;
+        while (mIterations < mMaxIterations && mResidual > mTolerance) {
+            fine.apply(p, q);
+            double alpha = rz / dot(p, q);
+            for (int i = 0; i < n; i++) {
+                x[i] += alpha * p[i];
+                r[i] -= alpha * q[i];
+            }
+            mIterations++;
+            mResidual = Math.sqrt(dot(r, r)) / bNorm;
+            if (mResidual <= mTolerance) {
+                break;
+            }
+
+            fine.vCycle(r, z);
+            double rzNew = dot(r, z);
+            double beta = rzNew / rz;
+            rz = rzNew;
+            for (int i = 0; i < n; i++) {
+                p[i] = (float) (z[i] + beta * p[i]);
+            }
+        }
+
+        return x;
+    }
+
+    private static double dot(float[] a, float[] b) {
+        double sum = 0.0;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+
+    /**
+     * One level of the multigrid hierarchy. The operator is stored as a five-point
+     * stencil: a diagonal and the (positive) coupling to the east and south neighbour.
+     * Inactive cells have a zero diagonal
+     */
+    private static class Level {
+        final int width;
+        final int height;
+        final float[] diag;
+        final float[] east;
+        final float[] south;
+        final float[] x;
+        final float[] b;
+        final float[] residual;
+        Level coarse;
+
+        Level(int width, int height) {
+            this.width = width;
+            this.height = height;
+            int n = width * height;
+            diag = new float[n];
+            east = new float[n];
+            south = new float[n];
+            x = new float[n];
+            b = new float[n];
+            residual = new float[n];
+        }
+
+        static Level fromSystem(PoissonSystem system) {
+            int w = system.width;
+            Level level = new Level(w, system.height);
+            boolean[] active = system.active;
+            for (int i = 0; i < active.length; i++) {
+                if (!active[i]) {
+                    continue;
+                }
+                level.diag[i] = 4.0f;
+                /* active pixels never lie on the border, neighbours are in range */
+                if (active[i + 1]) {
+                    level.east[i] = 1.0f;
+                }
+                if (active[i + w]) {
+                    level.south[i] = 1.0f;
+                }
+            }
+            level.buildHierarchy();
+            return level;
+        }
+
+        private void buildHierarchy() {
+            if (width <= COARSEST_SIZE || height <= COARSEST_SIZE) {
+                return;
+            }
+
+            int cw = (width + 1) / 2;
+            int ch = (height + 1) / 2;
+            Level c = new Level(cw, ch);
+            /* Galerkin product P^T A P for piecewise constant P */
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    int i = y * width + x;
+                    if (diag[i] == 0.0f) {
+                        continue;
+                    }
+                    int parent = (y / 2) * cw + (x / 2);
+                    c.diag[parent] += diag[i];
+                    if (east[i] != 0.0f) {
+                        if ((x + 1) / 2 == x / 2) {
+                            c.diag[parent] -= 2.0f * east[i];
+                        } else {
+                            c.east[parent] += east[i];
+                        }
+                    }
+                    if (south[i] != 0.0f) {
+                        if ((y + 1) / 2 == y / 2) {
+                            c.diag[parent] -= 2.0f * south[i];
+                        } else {
+                            c.south[parent] += south[i];
+                        }
+                    }
+                }
+            }
+            coarse = c;
+            coarse.buildHierarchy();
+        }
+
+        /**
+         * out = A in
+         */
+        void apply(float[] in, float[] out) {
+            int w = width;
+            for (int i = 0; i < diag.length; i++) {
+                if (diag[i] == 0.0f) {
+                    out[i] = 0.0f;
+                    continue;
+                }
+                float v = diag[i] * in[i];
+                if (east[i] != 0.0f) v -= east[i] * in[i + 1];
+                if (south[i] != 0.0f) v -= south[i] * in[i + w];
+                if (i > 0 && east[i - 1] != 0.0f) v -= east[i - 1] * in[i - 1];
+                if (i >= w && south[i - w] != 0.0f) v -= south[i - w] * in[i - w];
+                out[i] = v;
+            }
+        }
+
+        /**
+         * Approximates out = A^-1 rhs with a single V-cycle starting from zero
+         */
+        void vCycle(float[] rhs, float[] out) {
+            System.arraycopy(rhs, 0, b, 0, b.length);
+            cycle();
+            System.arraycopy(x, 0, out, 0, x.length);
+        }
+
+        private void cycle() {
+            Arrays.fill(x, 0.0f);
+            if (coarse == null) {
+                for (int s = 0; s < COARSEST_SWEEPS; s++) {
+                    sweep(0);
+                    sweep(1);
+                }
+                for (int s = 0; s < COARSEST_SWEEPS; s++) {
+                    sweep(1);
+                    sweep(0);
+                }
+                return;
+            }
+
+            for (int s = 0; s < SMOOTHING_SWEEPS; s++) {
+                sweep(0);
+                sweep(1);
+            }
+
+            /* restrict residual */
+            apply(x, residual);
+            int cw = coarse.width;
+            Arrays.fill(coarse.b, 0.0f);
+            for (int y = 0; y < height; y++) {
+                for (int xx = 0; xx < width; xx++) {
+                    int i = y * width + xx;
+                    if (diag[i] != 0.0f) {
+                        coarse.b[(y / 2) * cw + (xx / 2)] += b[i] - residual[i];
+                    }
+                }
+            }
+
+            coarse.cycle();
+
+            /* prolongate correction */
+            for (int y = 0; y < height; y++) {
+                for (int xx = 0; xx < width; xx++) {
+                    int i = y * width + xx;
+                    if (diag[i] != 0.0f) {
+                        x[i] += coarse.x[(y / 2) * cw + (xx / 2)];
+                    }
+                }
+            }
+
+            for (int s = 0; s < SMOOTHING_SWEEPS; s++) {
+                sweep(1);
+                sweep(0);
+            }
+        }
+
+        /**
+         * Gauss-Seidel update of all cells of one color of the checkerboard
+         */
+        private void sweep(int color) {
+            int w = width;
+            for (int y = 0; y < height; y++) {
+                int row = y * w;
+                for (int xx = (y + color) & 1; xx < w; xx += 2) {
+                    int i = row + xx;
+                    float d = diag[i];
+                    if (d == 0.0f) {
+                        continue;
+                    }
+                    float v = b[i];
+                    if (east[i] != 0.0f) v += east[i] * x[i + 1];
+                    if (south[i] != 0.0f) v += south[i] * x[i + w];
+                    if (xx > 0 && east[i - 1] != 0.0f) v += east[i - 1] * x[i - 1];
+                    if (y > 0 && south[i - w] != 0.0f) v += south[i - w] * x[i - w];
+                    x[i] = v / d;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Objectify. Copyright (c) 2011-2016. Kai Wolf. All rights reserved.
+ * Redistribution and use in source form with or without modification is not permitted.
+ */
+
+package de.hsrm.objectify.reconstruction;
+
+/**
+ * The compute_normals kernels on the Java side, running on {@link RowBands}. Normalizes
+ * the solved normals, encodes them to the range of 8 bit colors and flags the pixels of
+ * the foreground mask as valid, 4 floats per pixel in the layout of the RenderScript
+ * allocations.
+ */
+public class NormalEncoder {
+    /* mask value of a foreground pixel, opaque white */
+    private static final int FOREGROUND = 0xFFFFFFFF;
+    private final RowBands mBands;
+
+    public NormalEncoder(RowBands bands) {
+        mBands = bands;
+    }
+
+    /**
+     * @param rawNormals solved normals, 4 floats per pixel in the component order of the
+     *                   normal solvers
+     * @param mask       foreground mask, one ARGB pixel per pixel
+     * @param normals    receives the encoded normals, 4 floats per pixel
+     */
+    public void encode(final float[] rawNormals, final int[] mask, final int width,
+        int height, final float[] normals) {
+        mBands.run(height, new RowBands.Task() {
+            @Override
+            public void run(int startRow, int endRow) {
+                for (int i = startRow * width; i < endRow * width; i++) {
+                    float x = rawNormals[4 * i];
+                    float y = rawNormals[4 * i + 1];
+                    float z = rawNormals[4 * i + 2];
+                    float rSxyz = (float) (1.0 / Math.sqrt(x * x + y * y + z * z));
+                    normals[4 * i] = 128.0f + 127.0f * y * rSxyz;
+                    normals[4 * i + 1] = 128.0f + 127.0f * z * rSxyz;
+                    normals[4 * i + 2] = 128.0f + 127.0f * x * rSxyz;
+                    normals[4 * i + 3] = mask[i] == FOREGROUND ? 1.0f : 0.0f;
+                }
+            }
+        });
+    }
+
+    /**
+     * Averages blocks of scale x scale encoded normals into one ARGB pixel each, like the
+     * preview kernel
+     *
+     * @return pixels of the (width / scale) x (height / scale) preview
+     */
+    public int[] preview(final float[] normals, final int width, int height,
+        final int scale) {
+        final int previewWidth = width / scale;
+        int previewHeight = height / scale;
+        final int[] pixels = new int[previewWidth * previewHeight];
+        final float area = scale * scale;
+        mBands.run(previewHeight, new RowBands.Task() {
+            @Override
+            public void run(int startRow, int endRow) {
+                for (int py = startRow; py < endRow; py++) {
+                    for (int px = 0; px < previewWidth; px++) {
+                        float r = 0.0f, g = 0.0f, b = 0.0f;
+                        for (int j = 0; j < scale; j++) {
+                            int row = (py * scale + j) * width + px * scale;
+                            for (int i = row; i < row + scale; i++) {
+                                r += normals[4 * i];
+                                g += normals[4 * i + 1];
+                                b += normals[4 * i + 2];
+                            }
+                        }
+                        pixels[py * previewWidth + px] = 0xFF000000
+                            | (int) (r / area) << 16 | (int) (g / area) << 8
+                            | (int) (b / area);
+                    }
+                }
+            }
+        });
+
+        return pixels;
+    }
+}
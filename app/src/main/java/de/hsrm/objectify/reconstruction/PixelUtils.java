@@ -0,0 +1,80 @@
+/*
+ * Objectify. Copyright (c) 2011-2016. Kai Wolf. All rights reserved.
+ * Redistribution and use in source form with or without modification is not permitted.
+ */
+
+package de.hsrm.objectify.reconstruction;
+
+/**
+ * Access to plain ARGB pixels, in the layout of {@code Bitmap.getPixels}, and the
+ * thresholding shared by the grayscale operations of {@link LuminancePlane}.
+ * Independent of the Android framework.
+ */
+public class PixelUtils {
+    public static final double GS_RED = 0.299;
+    public static final double GS_GREEN = 0.587;
+    public static final double GS_BLUE = 0.114;
+
+    private PixelUtils() {
+    }
+
+    public static int red(int argb) {
+        return (argb >> 16) & 0xFF;
+    }
+
+    public static int green(int argb) {
+        return (argb >> 8) & 0xFF;
+    }
+
+    public static int blue(int argb) {
+        return argb & 0xFF;
+    }
+
+    /**
+     * @return opaque pixel of the given gray value
+     */
+    public static int gray(int value) {
+        return 0xFF000000 | (value << 16) | (value << 8) | value;
+    }
+
+    public static int getIntensity(int argb) {
+        return (int) (red(argb) * GS_RED + green(argb) * GS_GREEN + blue(argb) * GS_BLUE);
+    }
+
+    /**
+     * @return the threshold maximizing the variance between the gray values below and
+     * above it (Otsu's method)
+     */
+    public static int getOtsuThreshold(int[] histogram, int pixelCount) {
+        float sum = 0.0f;
+        for (int i = 0; i < 256; i++) sum += i * histogram[i];
+
+        float sumB = 0.0f;
+        int wB = 0;
+        float varMax = 0.0f;
+        int threshold = 0;
+
+        for (int i = 0; i < 256; i++) {
+            wB += histogram[i];
+            if (wB == 0)
+                continue;
+            int wF = pixelCount - wB;
+
+            if (wF == 0)
+                break;
+
+            sumB += (float) (i * histogram[i]);
+            float mB = sumB / wB;
+            float mF = (sum - sumB) / wF;
+
+            float varBetween = (float) wB * (float) wF * (mB - mF) * (mB - mF);
+
+            if (varBetween > varMax) {
+                varMax = varBetween;
+                threshold = i;
+            }
+        }
+
+        return threshold;
+    }
+}
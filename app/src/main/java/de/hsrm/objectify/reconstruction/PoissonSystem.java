@@ -0,0 +1,57 @@
+/*
+ * Objectify. Copyright (c) 2011-2016. Kai Wolf. All rights reserved.
+ * Redistribution and use in source form with or without modification is not permitted.
+ */
+
+package de.hsrm.objectify.reconstruction;
+
+/**
+ * The masked Poisson equation solved by the lh_integration kernel. A pixel is active if
+ * it isn't located on the image border and all of its four neighbours are flagged valid.
+ * Every active pixel p satisfies
+ * <pre>
+ *     4 z(p) - sum of z(q) over the active neighbours q of p = rhs(p)
+ * </pre>
+ * while the heights of all remaining pixels are fixed to zero.
+ */
+public class PoissonSystem {
+    public final int width;
+    public final int height;
+    public final boolean[] active;
+    public final float[] rhs;
+    public final int activeCount;
+
+    private PoissonSystem(int width, int height, boolean[] active, float[] rhs,
+        int activeCount) {
+        this.width = width;
+        this.height = height;
+        this.active = active;
+        this.rhs = rhs;
+        this.activeCount = activeCount;
+    }
+
+    /**
+     * @param normals encoded normals as written by compute_normals, 4 floats per pixel
+     */
+    public static PoissonSystem fromNormals(float[] normals, int width, int height) {
+        boolean[] active = new boolean[width * height];
+        float[] rhs = new float[width * height];
+        int count = 0;
+        for (int y = 1; y < height - 1; y++) {
+            for (int x = 1; x < width - 1; x++) {
+                int i = y * width + x;
+                if (normals[4 * (i - width) + 3] == 1.0f
+                    && normals[4 * (i + width) + 3] == 1.0f
+                    && normals[4 * (i - 1) + 3] == 1.0f
+                    && normals[4 * (i + 1) + 3] == 1.0f) {
+                    active[i] = true;
+                    rhs[i] = normals[4 * (i - width)] - normals[4 * i]
+                        + normals[4 * (i - 1) + 1] - normals[4 * i + 1];
+                    count++;
+                }
+            }
+        }
+
+        return new PoissonSystem(width, height, active, rhs, count);
+    }
+}
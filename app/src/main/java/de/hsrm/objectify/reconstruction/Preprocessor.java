@@ -0,0 +1,143 @@
+/*
+ * Objectify. Copyright (c) 2011-2016. Kai Wolf. All rights reserved.
+ * Redistribution and use in source form with or without modification is not permitted.
+ */
+
+package de.hsrm.objectify.reconstruction;
+
+import java.util.Arrays;
+
+/**
+ * Prepares the captures for the normal solvers in a single pass per image. The pixels of
+ * every capture are read once, reduced by the luminance of the ambient capture and
+ * stored in a {@link LuminancePlane}. The histogram of the capture the foreground is
+ * segmented from is gathered in the same pass, so masking only needs the Otsu threshold
+ * and one pass over that plane.
+ * <p/>
+ * The results are the same as chaining subtract and binarize of {@link LuminancePlane},
+ * without any intermediate planes.
+ */
+public class Preprocessor {
+    private final int mWidth;
+    private final int mHeight;
+    private final int mMaskImage;
+    private final LuminancePlane mAmbient;
+    private final LuminancePlane[] mImages;
+    private final int[] mHistogram = new int[256];
+    private int mAdded;
+
+    /**
+     * @param numImages number of captures without the ambient one
+     * @param maskImage index of the capture the foreground mask is computed from
+     */
+    public Preprocessor(int width, int height, int numImages, int maskImage) {
+        mWidth = width;
+        mHeight = height;
+        mMaskImage = maskImage;
+        mAmbient = new LuminancePlane(width, height);
+        mImages = new LuminancePlane[numImages];
+        for (int k = 0; k < numImages; k++) {
+            mImages[k] = new LuminancePlane(width, height);
+        }
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public int getNumImages() {
+        return mImages.length;
+    }
+
+    /**
+     * Starts a new set of captures
+     *
+     * @param ambient capture without display light, has to be set before any other
+     *                capture
+     */
+    public void setAmbient(LuminancePlane ambient) {
+        Arrays.fill(mHistogram, 0);
+        mAdded = 0;
+        System.arraycopy(ambient.data, 0, mAmbient.data, 0, mAmbient.data.length);
+    }
+
+    /**
+     * @param k       index of the capture, without the ambient one
+     * @param capture the capture, left unchanged
+     */
+    public void addImage(int k, LuminancePlane capture) {
+        byte[] pixels = capture.data;
+        byte[] ambient = mAmbient.data;
+        byte[] image = mImages[k].data;
+        if (k == mMaskImage) {
+            for (int i = 0; i < image.length; i++) {
+                int c = Math.max((pixels[i] & 0xFF) - (ambient[i] & 0xFF), 0);
+                image[i] = (byte) c;
+                mHistogram[c]++;
+            }
+        } else {
+            for (int i = 0; i < image.length; i++) {
+                image[i] = (byte) Math.max((pixels[i] & 0xFF) - (ambient[i] & 0xFF), 0);
+            }
+        }
+        mAdded++;
+    }
+
+    /**
+     * @return true once as many captures as expected have been added since the ambient
+     * one was set
+     */
+    public boolean isComplete() {
+        return mAdded == mImages.length;
+    }
+
+    /**
+     * @return luminance of capture k without the ambient light
+     */
+    public LuminancePlane getImage(int k) {
+        return mImages[k];
+    }
+
+    /**
+     * @return histogram of the capture the mask is computed from
+     */
+    public int[] getHistogram() {
+        return mHistogram;
+    }
+
+    /**
+     * @return foreground mask, opaque white for pixels brighter than the Otsu threshold
+     * of the mask capture and opaque black for all others
+     */
+    public int[] createMask() {
+        int threshold = PixelUtils.getOtsuThreshold(mHistogram, mWidth * mHeight);
+        byte[] image = mImages[mMaskImage].data;
+        int[] mask = new int[image.length];
+        for (int i = 0; i < image.length; i++) {
+            mask[i] = (image[i] & 0xFF) > threshold ? 0xFFFFFFFF : 0xFF000000;
+        }
+
+        return mask;
+    }
+
+    /**
+     * Reads the rows [y, y + rows) of all captures into a planar block of intensities,
+     * as taken by the normal solvers. The value of capture k at pixel i is stored at
+     * {@code k * stride + i}
+     */
+    public void readBand(int y, int rows, float[] band, int stride) {
+        int offset = y * mWidth;
+        int count = rows * mWidth;
+        for (int k = 0; k < mImages.length; k++) {
+            byte[] image = mImages[k].data;
+            int planeOffset = k * stride;
+            for (int i = 0; i < count; i++) {
+                band[planeOffset + i] = image[offset + i] & 0xFF;
+            }
+        }
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Objectify. Copyright (c) 2011-2016. Kai Wolf. All rights reserved.
+ * Redistribution and use in source form with or without modification is not permitted.
+ */
+
+package de.hsrm.objectify.reconstruction;
+
+/**
+ * The lh_integration kernels on the Java side. Solves the masked Poisson equation of
+ * {@link PoissonSystem} with a fixed number of Jacobi or red-black successive
+ * over-relaxation sweeps, each sweep split into {@link RowBands}.
+ * <p/>
+ * Jacobi sweeps read the heights of the previous sweep and write into a second array.
+ * Red-black sweeps update the cells of one parity in place, which only read cells of the
+ * other parity, so the bands of a half sweep never depend on each other.
+ */
+public class RelaxationIntegrator implements HeightfieldIntegrator {
+    private final RowBands mBands;
+    private final int mIterations;
+    private final float mOmega;
+    private final boolean mRedBlack;
+    private boolean mTrace;
+    private double mResidual;
+    private float[] mResiduals;
+
+    private RelaxationIntegrator(RowBands bands, int iterations, float omega,
+        boolean redBlack) {
+        mBands = bands;
+        mIterations = iterations;
+        mOmega = omega;
+        mRedBlack = redBlack;
+    }
+
+    /**
+     * Same as the integrate kernel, iterated on the device
+     */
+    public static RelaxationIntegrator jacobi(RowBands bands, int iterations) {
+        return new RelaxationIntegrator(bands, iterations, 1.0f, false);
+    }
+
+    /**
+     * Same as the relax kernel, once per parity and iteration
+     *
+     * @param omega relaxation factor in (0, 2)
+     */
+    public static RelaxationIntegrator redBlack(RowBands bands, int iterations,
+        float omega) {
+        return new RelaxationIntegrator(bands, iterations, omega, true);
+    }
+
+    /**
+     * @param trace true to record the residual after every iteration, see
+     *              {@link #getResiduals}
+     */
+    public void setTrace(boolean trace) {
+        mTrace = trace;
+    }
+
+    /**
+     * @return relative residual reached by the last call to {@link #integrate}
+     */
+    public double getResidual() {
+        return mResidual;
+    }
+
+    /**
+     * @return relative residual after every iteration of the last call to
+     * {@link #integrate}, or null if it was not traced
+     */
+    public float[] getResiduals() {
+        return mResiduals;
+    }
+
+    @Override
+    public float[] integrate(float[] normals, int width, int height) {
+        return solve(PoissonSystem.fromNormals(normals, width, height));
+    }
+
+    public float[] solve(PoissonSystem system) {
+        int n = system.width * system.height;
+        float[] heights = new float[n];
+        mResiduals = mTrace ? new float[mIterations] : null;
+        if (mRedBlack) {
+            for (int i = 0; i < mIterations; i++) {
+                relax(system, heights, 0);
+                relax(system, heights, 1);
+                if (mTrace) {
+                    mResiduals[i] = (float) residual(system, heights);
+                }
+            }
+        } else {
+            float[] next = new float[n];
+            for (int i = 0; i < mIterations; i++) {
+                jacobi(system, heights, next);
+                float[] swap = heights;
+                heights = next;
+                next = swap;
+                if (mTrace) {
+                    mResiduals[i] = (float) residual(system, heights);
+                }
+            }
+        }
+        mResidual = residual(system, heights);
+
+        return heights;
+    }
+
+    private void jacobi(final PoissonSystem system, final float[] in, final float[] out) {
+        final int width = system.width;
+        final int height = system.height;
+        mBands.run(height, new RowBands.Task() {
+            @Override
+            public void run(int startRow, int endRow) {
+                for (int y = startRow; y < endRow; y++) {
+                    for (int x = 0; x < width; x++) {
+                        int i = y * width + x;
+                        if (!system.active[i]) {
+                            out[i] = in[i];
+                            continue;
+                        }
+                        out[i] = 0.25f * (in[i - width] + in[i + width] + in[i - 1]
+                            + in[i + 1] + system.rhs[i]);
+                    }
+                }
+            }
+        });
+    }
+
+    private void relax(final PoissonSystem system, final float[] heights,
+        final int parity) {
+        final int width = system.width;
+        final float omega = mOmega;
+        mBands.run(system.height, new RowBands.Task() {
+            @Override
+            public void run(int startRow, int endRow) {
+                for (int y = startRow; y < endRow; y++) {
+                    for (int x = (y + parity) & 1; x < width; x += 2) {
+                        int i = y * width + x;
+                        if (!system.active[i]) {
+                            continue;
+                        }
+                        float gs = 0.25f * (heights[i - width] + heights[i + width]
+                            + heights[i - 1] + heights[i + 1] + system.rhs[i]);
+                        heights[i] += omega * (gs - heights[i]);
+                    }
+                }
+            }
+        });
+    }
+
+    private static double residual(PoissonSystem system, float[] heights) {
+        int width = system.width;
+        double sum = 0.0;
+        double rhs = 0.0;
+        for (int i = 0; i < heights.length; i++) {
+            if (!system.active[i]) {
+                continue;
+            }
+            double r = heights[i - width] + heights[i + width] + heights[i - 1]
+                + heights[i + 1] - 4.0 * heights[i] + system.rhs[i];
+            sum += r * r;
+            rhs += system.rhs[i] * system.rhs[i];
+        }
+
+        return rhs > 0.0 ? Math.sqrt(sum / rhs) : 0.0;
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Objectify. Copyright (c) 2011-2016. Kai Wolf. All rights reserved.
+ * Redistribution and use in source form with or without modification is not permitted.
+ */
+
+package de.hsrm.objectify.reconstruction;
+
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Runs a computation over the rows of an image on several threads. The rows are split
+ * into one contiguous band per thread, the first band is processed by the calling thread
+ * and {@link #run} returns once all bands are done, so consecutive runs are separated by
+ * a barrier.
+ */
+public class RowBands {
+    private final ExecutorService mExecutor;
+    private final int mBands;
+    private final ArrayList<Future<?>> mFutures = new ArrayList<Future<?>>();
+
+    /**
+     * @param executor runs all but the first band, should have bands - 1 threads at least
+     * @param bands    number of bands the rows are split into
+     */
+    public RowBands(ExecutorService executor, int bands) {
+        mExecutor = executor;
+        mBands = Math.max(bands, 1);
+    }
+
+    public int getBands() {
+        return mBands;
+    }
+
+    /**
+     * Processes the rows [0, rows) and waits for all bands to finish
+     */
+    public void run(int rows, final Task task) {
+        int bandRows = (rows + mBands - 1) / mBands;
+        mFutures.clear();
+        for (int start = bandRows; start < rows; start += bandRows) {
+            final int bandStart = start;
+            final int bandEnd = Math.min(start + bandRows, rows);
+            mFutures.add(mExecutor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    task.run(bandStart, bandEnd);
+                }
+            }));
+        }
+        task.run(0, Math.min(bandRows, rows));
+
+        try {
+            for (int i = 0; i < mFutures.size(); i++) {
+                mFutures.get(i).get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for row bands", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * Computation over a band of rows. Bands of the same run are processed concurrently
+     * and must not write to rows of other bands
+     */
+    public interface Task {
+        /**
+         * @param startRow first row of the band
+         * @param endRow   row after the last row of the band
+         */
+        void run(int startRow, int endRow);
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Objectify. Copyright (c) 2011-2016. Kai Wolf. All rights reserved.
+ * Redistribution and use in source form with or without modification is not permitted.
+ */
+
+package de.hsrm.objectify.reconstruction;
+
+import org.ejml.data.DenseMatrix64F;
+import org.ejml.factory.DecompositionFactory;
+import org.ejml.interfaces.decomposition.EigenDecomposition;
+
+/**
+ * Photometric stereo for unknown light sources. Computes the same basis as a SVD of the
+ * (pixels x numImages) image matrix A, but without ever materializing A: the small Gram
+ * matrix A^T A is accumulated block by block, its eigenvectors W and singular values S
+ * are determined and afterwards every block is projected onto A W S^-1.
+ * <p/>
+ * Usage is two passes over the images: {@link #accumulate} for all pixels, or
+ * {@link #accumulateProduct} for all pairs of images, then {@link #decompose()} once and
+ * {@link #project} for all pixels again.
+ */
+public class UncalibratedNormalSolver {
+    /* number of basis vectors written per pixel, consumed as float4 by compute_normals */
+    private static final int COMPONENTS = 4;
+    private static final double EPSILON = 1.0e-12;
+    private final int mNumImages;
+    private final double[] mGram;
+    private float[] mProjection;
+
+    public UncalibratedNormalSolver(int numImages) {
+        mNumImages = numImages;
+        mGram = new double[numImages * numImages];
+    }
+
+    /**
+     * Adds a block of pixels to the Gram matrix.
+     *
+     * @param intensities planar intensities, value of image k at pixel i is stored at
+     *                    {@code k * stride + i}
+     * @param stride      distance between two image planes inside intensities
+     * @param pixels      number of pixels in this block
+     */
+    public void accumulate(float[] intensities, int stride, int pixels) {
+        final int n = mNumImages;
+        for (int r = 0; r < n; r++) {
+            int rOffset = r * stride;
+            for (int c = r; c < n; c++) {
+                int cOffset = c * stride;
+                double sum = 0.0;
+                for (int i = 0; i < pixels; i++) {
+                    sum += intensities[rOffset + i] * intensities[cOffset + i];
+                }
+                mGram[r * n + c] += sum;
+            }
+        }
+    }
+
+    /**
+     * Adds the dot product of two whole images to the Gram matrix, for images arriving
+     * one at a time. Once the products of all pairs have been added, the Gram matrix is
+     * the same as after {@link #accumulate} over all pixels
+     *
+     * @param r index of the first image, not greater than c
+     * @param c index of the second image
+     */
+    public void accumulateProduct(int r, int c, double product) {
+        mGram[r * mNumImages + c] += product;
+    }
+
+    /**
+     * Eigen-decomposition of the accumulated Gram matrix. Has to be called after all
+     * pixels have been accumulated and before the first call to {@link #project}
+     */
+    public void decompose() {
+        final int n = mNumImages;
+        DenseMatrix64F gram = new DenseMatrix64F(n, n);
+        for (int r = 0; r < n; r++) {
+            for (int c = r; c < n; c++) {
+                gram.set(r, c, mGram[r * n + c]);
+                gram.set(c, r, mGram[r * n + c]);
+            }
+        }
+
+        EigenDecomposition<DenseMatrix64F> eig = DecompositionFactory.eig(n, true, true);
+        if (!eig.decompose(gram)) {
+            throw new RuntimeException("Decomposition failed");
+        }
+
+        /* order eigenvalues descending, like the singular values of a SVD */
+        int[] order = new int[n];
+        double[] values = new double[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+            values[i] = eig.getEigenvalue(i).getReal();
+        }
+        for (int i = 1; i < n; i++) {
+            int o = order[i];
+            int j = i - 1;
+            while (j >= 0 && values[order[j]] < values[o]) {
+                order[j + 1] = order[j];
+                j--;
+            }
+            order[j + 1] = o;
+        }
+
+        /* projection matrix W S^-1, row-major as COMPONENTS x numImages */
+        mProjection = new float[COMPONENTS * n];
+        for (int j = 0; j < Math.min(COMPONENTS, n); j++) {
+            double sigma = Math.sqrt(Math.max(values[order[j]], 0.0));
+            if (sigma < EPSILON) {
+                continue;
+            }
+            DenseMatrix64F w = eig.getEigenVector(order[j]);
+            /* the dominant vector is the albedo-weighted viewing direction, let it point
+             * towards the camera */
+            double sign = 1.0;
+            if (j == 0) {
+                double sum = 0.0;
+                for (int k = 0; k < n; k++) sum += w.get(k, 0);
+                sign = sum < 0.0 ? -1.0 : 1.0;
+            }
+            for (int k = 0; k < n; k++) {
+                mProjection[j * n + k] = (float) (sign * w.get(k, 0) / sigma);
+            }
+        }
+    }
+
+    /**
+     * Projects a block of pixels onto the basis determined by {@link #decompose()}.
+     *
+     * @param intensities planar intensities, see {@link #accumulate}
+     * @param stride      distance between two image planes inside intensities
+     * @param pixels      number of pixels in this block
+     * @param out         raw normals, 4 floats per pixel
+     * @param outOffset   pixel offset inside out
+     */
+    public void project(float[] intensities, int stride, int pixels, float[] out,
+        int outOffset) {
+        if (mProjection == null) {
+            throw new IllegalStateException("decompose() has not been called");
+        }
+        final int n = mNumImages;
+        final float[] p = mProjection;
+        int o = 4 * outOffset;
+        for (int i = 0; i < pixels; i++) {
+            for (int j = 0; j < COMPONENTS; j++) {
+                float sum = 0.0f;
+                for (int k = 0; k < n; k++) {
+                    sum += p[j * n + k] * intensities[k * stride + i];
+                }
+                out[o++] = sum;
+            }
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Objectify. Copyright (c) 2011-2016. Kai Wolf. All rights reserved.
+ * Redistribution and use in source form with or without modification is not permitted.
+ */
+
+package de.hsrm.objectify.rendering;
+
+import android.renderscript.Allocation;
+import android.renderscript.Element;
+import android.renderscript.RenderScript;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+/**
+ * Keeps RenderScript allocations alive between the reconstruction stages and between
+ * consecutive reconstructions. Allocations are handed out by element and element count
+ * and have to be given back with {@link #recycle} once a stage is done with them. The
+ * content of an obtained allocation is undefined.
+ */
+public class AllocationPool {
+    private final RenderScript mRS;
+    private final HashMap<Key, ArrayList<Allocation>> mFree =
+        new HashMap<Key, ArrayList<Allocation>>();
+    private final IdentityHashMap<Allocation, Key> mKeys =
+        new IdentityHashMap<Allocation, Key>();
+
+    public AllocationPool(RenderScript rs) {
+        mRS = rs;
+    }
+
+    /**
+     * @return an unused one-dimensional allocation of count elements
+     */
+    public Allocation obtain(Element element, int count) {
+        Key key = new Key(element, count);
+        ArrayList<Allocation> free = mFree.get(key);
+        if (free != null && !free.isEmpty()) {
+            return free.remove(free.size() - 1);
+        }
+
+        /* API 20+ only allows simple 1D allocations to be used with bind */
+        Allocation allocation = Allocation.createSized(mRS, element, count);
+        mKeys.put(allocation, key);
+        return allocation;
+    }
+
+    public void recycle(Allocation allocation) {
+        Key key = mKeys.get(allocation);
+        if (key == null) {
+            throw new IllegalArgumentException("allocation does not belong to this pool");
+        }
+
+        ArrayList<Allocation> free = mFree.get(key);
+        if (free == null) {
+            free = new ArrayList<Allocation>();
+            mFree.put(key, free);
+        }
+        free.add(allocation);
+    }
+
+    /**
+     * Releases the native memory of all allocations, including those still in use
+     */
+    public void destroy() {
+        for (Allocation allocation : mKeys.keySet()) {
+            allocation.destroy();
+        }
+        mKeys.clear();
+        mFree.clear();
+    }
+
+    /**
+     * Elements are cached per RenderScript context, hence compared by identity
+     */
+    private static class Key {
+        final Element element;
+        final int count;
+
+        Key(Element element, int count) {
+            this.element = element;
+            this.count = count;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return element == other.element && count == other.count;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(element) + count;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Objectify. Copyright (c) 2011-2016. Kai Wolf. All rights reserved.
+ * Redistribution and use in source form with or without modification is not permitted.
+ */
+
+package de.hsrm.objectify.rendering;
+
+import android.opengl.GLES20;
+import android.util.Log;
+
+/**
+ * Shader program shading a model with a single directional light in eye space, using
+ * per-vertex normals. Both sides of a surface are lit the same.
+ */
+class LitShader {
+    private static final String TAG = "LitShader";
+    private static final String VERTEX_SHADER = ""
+        + "uniform mat4 uMVPMatrix;\n"
+        + "uniform mat4 uMVMatrix;\n"
+        + "attribute vec3 aPosition;\n"
+        + "attribute vec3 aNormal;\n"
+        + "varying vec3 vNormal;\n"
+        + "void main() {\n"
+        + "    vNormal = (uMVMatrix * vec4(aNormal, 0.0)).xyz;\n"
+        + "    gl_Position = uMVPMatrix * vec4(aPosition, 1.0);\n"
+        + "}\n";
+    private static final String FRAGMENT_SHADER = ""
+        + "precision mediump float;\n"
+        + "uniform vec3 uLightDirection;\n"
+        + "uniform vec4 uColor;\n"
+        + "varying vec3 vNormal;\n"
+        + "void main() {\n"
+        + "    float diffuse = abs(dot(normalize(vNormal), uLightDirection));\n"
+        + "    gl_FragColor = vec4(uColor.rgb * (0.2 + 0.8 * diffuse), uColor.a);\n"
+        + "}\n";
+    /* normalized direction towards the light, from the upper right of the viewer */
+    private static final float[] LIGHT_DIRECTION = {0.3015f, 0.3015f, 0.9045f};
+    private static final float[] COLOR = {0.9f, 0.9f, 0.9f, 1.0f};
+    final int positionHandle;
+    final int normalHandle;
+    private final int mProgram;
+    private final int mMVPMatrixHandle;
+    private final int mMVMatrixHandle;
+    private final int mLightDirectionHandle;
+    private final int mColorHandle;
+
+    /**
+     * Compiles and links the program in the current GL context
+     */
+    LitShader() {
+        int vertexShader = compile(GLES20.GL_VERTEX_SHADER, VERTEX_SHADER);
+        int fragmentShader = compile(GLES20.GL_FRAGMENT_SHADER, FRAGMENT_SHADER);
+        mProgram = GLES20.glCreateProgram();
+        GLES20.glAttachShader(mProgram, vertexShader);
+        GLES20.glAttachShader(mProgram, fragmentShader);
+        GLES20.glLinkProgram(mProgram);
+        GLES20.glDeleteShader(vertexShader);
+        GLES20.glDeleteShader(fragmentShader);
+
+        int[] status = new int[1];
+        GLES20.glGetProgramiv(mProgram, GLES20.GL_LINK_STATUS, status, 0);
+        if (status[0] == 0) {
+            String log = GLES20.glGetProgramInfoLog(mProgram);
+            GLES20.glDeleteProgram(mProgram);
+            throw new RuntimeException("Could not link shader program: " + log);
+        }
+
+        positionHandle = GLES20.glGetAttribLocation(mProgram, "aPosition");
+        normalHandle = GLES20.glGetAttribLocation(mProgram, "aNormal");
+        mMVPMatrixHandle = GLES20.glGetUniformLocation(mProgram, "uMVPMatrix");
+        mMVMatrixHandle = GLES20.glGetUniformLocation(mProgram, "uMVMatrix");
+        mLightDirectionHandle = GLES20.glGetUniformLocation(mProgram, "uLightDirection");
+        mColorHandle = GLES20.glGetUniformLocation(mProgram, "uColor");
+    }
+
+    private static int compile(int type, String source) {
+        int shader = GLES20.glCreateShader(type);
+        GLES20.glShaderSource(shader, source);
+        GLES20.glCompileShader(shader);
+
+        int[] status = new int[1];
+        GLES20.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, status, 0);
+        if (status[0] == 0) {
+            String log = GLES20.glGetShaderInfoLog(shader);
+            Log.e(TAG, source);
+            GLES20.glDeleteShader(shader);
+            throw new RuntimeException("Could not compile shader: " + log);
+        }
+        return shader;
+    }
+
+    /**
+     * Uses the program with the given model-view and model-view-projection matrices. The
+     * model-view matrix may only contain rotations and uniform scaling
+     */
+    void use(float[] mvpMatrix, float[] mvMatrix) {
+        GLES20.glUseProgram(mProgram);
+        GLES20.glUniformMatrix4fv(mMVPMatrixHandle, 1, false, mvpMatrix, 0);
+        GLES20.glUniformMatrix4fv(mMVMatrixHandle, 1, false, mvMatrix, 0);
+        GLES20.glUniform3fv(mLightDirectionHandle, 1, LIGHT_DIRECTION, 0);
+        GLES20.glUniform4fv(mColorHandle, 1, COLOR, 0);
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Objectify. Copyright (c) 2011-2016. Kai Wolf. All rights reserved.
+ * Redistribution and use in source form with or without modification is not permitted.
+ */
+
+package de.hsrm.objectify.rendering;
+
+import android.opengl.GLES20;
+
+import java.nio.Buffer;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+
+/**
+ * Vertex and index buffer objects holding an {@link ObjectModel} in graphics memory. The
+ * model is uploaded once on creation, drawing afterwards does not transfer any vertex
+ * data. The buffers belong to the GL context current on creation and are lost with it.
+ * <p/>
+ * Models with up to 65536 vertices are drawn with 16 bit indices. Larger models use 32
+ * bit indices if the device supports OES_element_index_uint, otherwise they are split
+ * into batches small enough for 16 bit indices.
+ * <p/>
+ * The triangles of every batch are sorted into the tiles of a {@link TileIndex}. Only
+ * the tiles intersecting the view frustum are drawn, consecutive visible tiles with a
+ * single draw call.
+ */
+class ModelBuffers {
+    private static final String EXT_ELEMENT_INDEX_UINT = "GL_OES_element_index_uint";
+    private final ObjectModel mObjectModel;
+    /* vertex, normal and index buffer of every batch */
+    private final int[] mBuffers;
+    private final TileIndex[] mTiles;
+    private final int mIndexType;
+    private final int mIndexSize;
+
+    ModelBuffers(ObjectModel objectModel) {
+        mObjectModel = objectModel;
+
+        if (objectModel.getVertexCount() <= ObjectModel.SHORT_INDEX_LIMIT) {
+            mIndexType = GLES20.GL_UNSIGNED_SHORT;
+            mIndexSize = 2;
+            mBuffers = generateBuffers(1);
+            mTiles = new TileIndex[1];
+            upload(0, objectModel.getVertexBuffer(), objectModel.getNormalBuffer(),
+                objectModel.getShortIndices());
+            return;
+        }
+
+        String extensions = GLES20.glGetString(GLES20.GL_EXTENSIONS);
+        if (extensions != null && extensions.contains(EXT_ELEMENT_INDEX_UINT)) {
+            mIndexType = GLES20.GL_UNSIGNED_INT;
+            mIndexSize = 4;
+            mBuffers = generateBuffers(1);
+            mTiles = new TileIndex[1];
+            upload(0, objectModel.getVertexBuffer(), objectModel.getNormalBuffer(),
+                objectModel.getFacesBuffer());
+        } else {
+            ArrayList<ObjectModel.Chunk> chunks = objectModel.splitIntoChunks();
+            mIndexType = GLES20.GL_UNSIGNED_SHORT;
+            mIndexSize = 2;
+            mBuffers = generateBuffers(chunks.size());
+            mTiles = new TileIndex[chunks.size()];
+            for (int i = 0; i < chunks.size(); i++) {
+                ObjectModel.Chunk chunk = chunks.get(i);
+                upload(i, chunk.vertices, chunk.normals, chunk.indices);
+            }
+        }
+    }
+
+    private static int[] generateBuffers(int batches) {
+        int[] buffers = new int[3 * batches];
+        GLES20.glGenBuffers(buffers.length, buffers, 0);
+        return buffers;
+    }
+
+    private void upload(int batch, FloatBuffer vertices, Buffer normals, Buffer indices) {
+        mTiles[batch] = new TileIndex(vertices, indices);
+
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, mBuffers[3 * batch]);
+        GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, 4 * vertices.capacity(),
+            vertices.rewind(), GLES20.GL_STATIC_DRAW);
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, mBuffers[3 * batch + 1]);
+        GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, 4 * normals.capacity(),
+            normals.rewind(), GLES20.GL_STATIC_DRAW);
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+
+        GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, mBuffers[3 * batch + 2]);
+        Buffer sorted = mTiles[batch].indices;
+        GLES20.glBufferData(GLES20.GL_ELEMENT_ARRAY_BUFFER,
+            mIndexSize * sorted.capacity(), sorted.rewind(), GLES20.GL_STATIC_DRAW);
+        mTiles[batch].indices = null;
+        GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
+    }
+
+    ObjectModel getObjectModel() {
+        return mObjectModel;
+    }
+
+    /**
+     * Draws the triangles of all tiles within the view frustum, the shader program has
+     * to be in use
+     *
+     * @param mvp model-view-projection matrix the program uses
+     */
+    void draw(int positionHandle, int normalHandle, float[] mvp) {
+        GLES20.glEnableVertexAttribArray(positionHandle);
+        GLES20.glEnableVertexAttribArray(normalHandle);
+        for (int i = 0; i < mTiles.length; i++) {
+            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, mBuffers[3 * i]);
+            GLES20.glVertexAttribPointer(positionHandle, 3, GLES20.GL_FLOAT, false, 0, 0);
+            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, mBuffers[3 * i + 1]);
+            GLES20.glVertexAttribPointer(normalHandle, 3, GLES20.GL_FLOAT, false, 0, 0);
+            GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, mBuffers[3 * i + 2]);
+
+            TileIndex tiles = mTiles[i];
+            int first = -1;
+            for (int tile = 0; tile < TileIndex.TILES * TileIndex.TILES; tile++) {
+                boolean visible = tiles.isVisible(tile, mvp);
+                if (visible && first < 0) {
+                    first = tiles.offsets[tile];
+                } else if (!visible && first >= 0) {
+                    drawRange(first, tiles.offsets[tile]);
+                    first = -1;
+                }
+            }
+            if (first >= 0) {
+                drawRange(first, tiles.offsets[TileIndex.TILES * TileIndex.TILES]);
+            }
+        }
+        GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+        GLES20.glDisableVertexAttribArray(normalHandle);
+        GLES20.glDisableVertexAttribArray(positionHandle);
+    }
+
+    private void drawRange(int first, int end) {
+        GLES20.glDrawElements(
+            GLES20.GL_TRIANGLES, end - first, mIndexType, first * mIndexSize);
+    }
+
+    /**
+     * Deletes the buffer objects, has to be called with their GL context current
+     */
+    void release() {
+        GLES20.glDeleteBuffers(mBuffers.length, mBuffers, 0);
+    }
+}
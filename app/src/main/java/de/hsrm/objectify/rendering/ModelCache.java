@@ -0,0 +1,136 @@
+/*
+ * Objectify. Copyright (c) 2011-2016. Kai Wolf. All rights reserved.
+ * Redistribution and use in source form with or without modification is not permitted.
+ */
+
+package de.hsrm.objectify.rendering;
+
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Process-wide cache of loaded models, keyed by gallery id and level of detail.
+ * Revisiting a reconstruction therefore neither reads nor decodes its model files again.
+ * Models are weighed by the size of their buffers and the least recently used ones are
+ * evicted once the budget, a fraction of the heap available to the app, is exceeded. The
+ * whole cache is dropped when the system runs low on memory.
+ * <p/>
+ * Levels a model was reconstructed without are recorded as missing, so they are not
+ * looked up again and do not count as misses.
+ */
+public class ModelCache implements ComponentCallbacks2 {
+    private static final String TAG = "ModelCache";
+    /* fraction of the memory class spent on cached models */
+    private static final int MEMORY_FRACTION = 4;
+    private static ModelCache sInstance;
+    private final LruCache<String, ObjectModel> mModels;
+    /* keys of the levels known not to exist */
+    private final Set<String> mMissing;
+
+    private ModelCache(int maxBytes) {
+        mModels = new LruCache<String, ObjectModel>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, ObjectModel objectModel) {
+                return objectModel.getByteSize();
+            }
+        };
+        mMissing = Collections.synchronizedSet(new HashSet<String>());
+    }
+
+    public static synchronized ModelCache getInstance(Context context) {
+        if (sInstance == null) {
+            Context appContext = context.getApplicationContext();
+            ActivityManager am =
+                (ActivityManager) appContext.getSystemService(Context.ACTIVITY_SERVICE);
+            int maxBytes = am.getMemoryClass() * 1024 * 1024 / MEMORY_FRACTION;
+            sInstance = new ModelCache(maxBytes);
+            appContext.registerComponentCallbacks(sInstance);
+        }
+        return sInstance;
+    }
+
+    /**
+     * @param level level of detail, 0 for the full model
+     * @return the cached model or null, can be called from any thread
+     */
+    public ObjectModel get(String galleryId, int level) {
+        return mModels.get(key(galleryId, level));
+    }
+
+    public void put(String galleryId, int level, ObjectModel objectModel) {
+        mModels.put(key(galleryId, level), objectModel);
+    }
+
+    public void remove(String galleryId, int level) {
+        mModels.remove(key(galleryId, level));
+        mMissing.remove(key(galleryId, level));
+    }
+
+    /**
+     * Records that the model has no file for the level, can be called from any thread
+     */
+    public void markMissing(String galleryId, int level) {
+        mMissing.add(key(galleryId, level));
+    }
+
+    /**
+     * @return true if the level is known not to exist, without touching the hit and miss
+     * counts
+     */
+    public boolean isMissing(String galleryId, int level) {
+        return mMissing.contains(key(galleryId, level));
+    }
+
+    private static String key(String galleryId, int level) {
+        return galleryId + "/" + level;
+    }
+
+    public int getHitCount() {
+        return mModels.hitCount();
+    }
+
+    public int getMissCount() {
+        return mModels.missCount();
+    }
+
+    /**
+     * @return bytes of all cached models
+     */
+    public int getSize() {
+        return mModels.size();
+    }
+
+    public int getMaxSize() {
+        return mModels.maxSize();
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        /* the ui of the app being hidden is no reason to give up the models yet */
+        if (level >= TRIM_MEMORY_RUNNING_LOW && level != TRIM_MEMORY_UI_HIDDEN) {
+            Log.d(TAG, "trim memory (" + level + "), dropping " + getSize() + " bytes");
+            mModels.evictAll();
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        mModels.evictAll();
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {}
+
+    @Override
+    public String toString() {
+        return mModels.toString() + ", " + getSize() + " of " + getMaxSize() + " bytes";
+    }
+}
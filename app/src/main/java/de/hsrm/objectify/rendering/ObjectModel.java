@@ -7,142 +7,123 @@ package de.hsrm.objectify.rendering;
 
 import android.graphics.Bitmap;
 
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
 import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
 
-import javax.microedition.khronos.opengles.GL10;
-
-import de.hsrm.objectify.utils.ArrayUtils;
+import de.hsrm.objectify.reconstruction.Mesh;
+import de.hsrm.objectify.reconstruction.ModelFile;
 
 /**
- * A representation of a 3D model object. Vertices, mNormals and mTexture can be added
- * after an instance of this class is created. This class implements {@link Serializable}
- * for saving/loading an instance of it
+ * A representation of a 3D model object. Vertices, normals and faces are kept in direct
+ * buffers, faces as 32 bit indices. Models are stored as {@link ModelFile}, this class
+ * only implements {@link Serializable} for loading models written by older versions
+ * <p/>
+ * A model holds no GL state, it can be shared between surfaces and outlive their GL
+ * contexts. {@link ModelBuffers} uploads it for drawing.
  */
 public class ObjectModel implements Serializable {
     private static final String TAG = "ObjectModel";
     private static final long serialVersionUID = 0L;
+    /* number of vertices addressable by unsigned short indices */
+    static final int SHORT_INDEX_LIMIT = 65536;
     public byte[] mBitmapData;
     private transient FloatBuffer mVertexBuffer;
     private transient FloatBuffer mTextureBuffer;
-    private transient FloatBuffer normalsBuffer;
-    private transient ShortBuffer mFacesBuffer;
+    private transient FloatBuffer mNormalBuffer;
+    private transient IntBuffer mFacesBuffer;
     private int[] mTextures = new int[1];
     private float[] mTexture;
-    private float mVertices[];
-    private float mNormals[];
-    private short mFaces[];
     private float[] mBoundingBox;
 
-    public ObjectModel(float[] vertices, float[] normals, short[] faces) {
-        onInitialize(vertices, normals, faces);
+    public ObjectModel(Mesh mesh) {
+        onInitialize(mesh);
     }
 
-    private void onInitialize(float[] vertices, float[] normals, short[] faces) {
-        setVertices(vertices);
-        setNormalVertices(normals);
-        setFaces(faces);
-        ByteBuffer byteBuf = ByteBuffer.allocateDirect(vertices.length * 4);
-        byteBuf.order(ByteOrder.nativeOrder());
-        mVertexBuffer = byteBuf.asFloatBuffer();
-        mVertexBuffer.put(vertices);
+    private void onInitialize(Mesh mesh) {
+        mVertexBuffer = mesh.vertices;
+        mNormalBuffer = mesh.normals;
+        mFacesBuffer = mesh.indices;
         mVertexBuffer.rewind();
-
-        byteBuf = ByteBuffer.allocateDirect(normals.length * 4);
-        byteBuf.order(ByteOrder.nativeOrder());
-        normalsBuffer = byteBuf.asFloatBuffer();
-        normalsBuffer.put(normals);
-        normalsBuffer.rewind();
-
-        byteBuf = ByteBuffer.allocateDirect(faces.length * 4);
-        byteBuf.order(ByteOrder.nativeOrder());
-        mFacesBuffer = byteBuf.asShortBuffer();
-        mFacesBuffer.put(faces);
+        mNormalBuffer.rewind();
         mFacesBuffer.rewind();
+        mBoundingBox = mesh.getBounds();
     }
 
-    public void setTextureBitmap(Bitmap texture) {
-        Bitmap textureBitmap = texture.copy(texture.getConfig(), true);
-    }
+    /**
+     * Loads a model file, or a serialized model written by older versions
+     */
+    public static ObjectModel load(String path) throws IOException {
+        File file = new File(path);
+        if (ModelFile.isModelFile(file)) {
+            return new ObjectModel(ModelFile.read(file));
+        }
 
-    public int getVerticesSize() {
-        return mVertices.length;
+        ObjectInputStream in =
+            new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            return (ObjectModel) in.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Could not cast to ObjectModel", e);
+        } finally {
+            in.close();
+        }
     }
 
-    public int getFacesSize() {
-        return mFaces.length;
+    public void save(String path) throws IOException {
+        ModelFile.write(new File(path),
+            new Mesh(mVertexBuffer, mNormalBuffer, mFacesBuffer, mBoundingBox));
     }
 
-    public void setNormalVertices(float[] normals) {
-        this.mNormals = new float[normals.length];
-        System.arraycopy(normals, 0, this.mNormals, 0, normals.length);
-        setNormalBuffer(this.mNormals);
+    public void setTextureBitmap(Bitmap texture) {
+        Bitmap textureBitmap = texture.copy(texture.getConfig(), true);
     }
 
-    public short[] getFaces() {
-        return mFaces;
+    public int getVertexCount() {
+        return mVertexBuffer.capacity() / 3;
     }
 
-    public void setFaces(short[] face) {
-        this.mFaces = new short[face.length];
-        System.arraycopy(face, 0, mFaces, 0, face.length);
-        setFacesBuffer(this.mFaces);
+    public int getFaceCount() {
+        return mFacesBuffer.capacity() / 3;
     }
 
-    private void setVertexBuffer(float[] vertices) {
-        ByteBuffer vbb = ByteBuffer.allocateDirect(vertices.length * 4);
-        vbb.order(ByteOrder.nativeOrder());
-        this.mVertexBuffer = vbb.asFloatBuffer();
-        for (float f : vertices) {
-            mVertexBuffer.put(f);
-        }
-        mVertexBuffer.rewind();
+    /**
+     * @return memory held by the vertex, normal and face buffers of this model
+     */
+    public int getByteSize() {
+        return 4 * (mVertexBuffer.capacity() + mNormalBuffer.capacity()
+                       + mFacesBuffer.capacity());
     }
 
-    private void setNormalBuffer(float[] normal) {
-        ByteBuffer nbb = ByteBuffer.allocateDirect(normal.length * 4);
-        nbb.order(ByteOrder.nativeOrder());
-        this.normalsBuffer = nbb.asFloatBuffer();
-        for (float f : mNormals) {
-            normalsBuffer.put(f);
-        }
-        normalsBuffer.rewind();
+    public FloatBuffer getVertexBuffer() {
+        return mVertexBuffer;
     }
 
-    private void setFacesBuffer(short[] faces) {
-        ByteBuffer fbb = ByteBuffer.allocateDirect(faces.length * 2);
-        fbb.order(ByteOrder.nativeOrder());
-        mFacesBuffer = fbb.asShortBuffer();
-        for (short s : faces) {
-            mFacesBuffer.put(s);
-        }
-        mFacesBuffer.rewind();
+    public FloatBuffer getNormalBuffer() {
+        return mNormalBuffer;
     }
 
-    public float getLength() {
-        if (mBoundingBox == null) {
-            setupBoundingBox();
-        }
-        float[] tmp = new float[] {(mBoundingBox[1] - mBoundingBox[0]),
-            (mBoundingBox[3] - mBoundingBox[2]), (mBoundingBox[5] - mBoundingBox[4])};
-        return 2.0f / ArrayUtils.max(tmp);
+    /**
+     * @return three vertex indices per triangle
+     */
+    public IntBuffer getFacesBuffer() {
+        return mFacesBuffer;
     }
 
-    private void setupBoundingBox() {
-        float x1 = 0, x2 = 0, y1 = 0, y2 = 0, z1 = 0, z2 = 0;
-        x1 = ArrayUtils.min(mVertices, 0);
-        x2 = ArrayUtils.max(mVertices, 0);
-        y1 = ArrayUtils.min(mVertices, 1);
-        y2 = ArrayUtils.max(mVertices, 1);
-        z1 = ArrayUtils.min(mVertices, 2);
-        z2 = ArrayUtils.max(mVertices, 2);
-        mBoundingBox = new float[] {x1, x2, y1, y2, z1, z2};
+    public float getLength() {
+        float extent = Math.max(mBoundingBox[1] - mBoundingBox[0],
+            mBoundingBox[3] - mBoundingBox[2]);
+        return 2.0f / Math.max(extent, mBoundingBox[5] - mBoundingBox[4]);
     }
 
     /**
@@ -151,80 +132,115 @@ public class ObjectModel implements Serializable {
      * @return the middle point of this object.
      */
     public float[] getMiddlePoint() {
-        if (mBoundingBox == null) {
-            setupBoundingBox();
-        }
         float xmiddle = (mBoundingBox[0] + mBoundingBox[1]) / 2.0f;
         float ymiddle = (mBoundingBox[2] + mBoundingBox[3]) / 2.0f;
         float zmiddle = (mBoundingBox[4] + mBoundingBox[5]) / 2.0f;
         return new float[] {xmiddle, ymiddle, zmiddle};
     }
 
-    public float[] getVertices() {
-        return mVertices;
-    }
-
-    public void setVertices(float[] mVertices) {
-        this.mVertices = new float[mVertices.length];
-        System.arraycopy(mVertices, 0, this.mVertices, 0, mVertices.length);
-        setVertexBuffer(this.mVertices);
-    }
-
-    public void draw(GL10 gl) {
-        gl.glEnableClientState(GL10.GL_VERTEX_ARRAY);
-        gl.glEnableClientState(GL10.GL_NORMAL_ARRAY);
-
-        gl.glVertexPointer(3, GL10.GL_FLOAT, 0, mVertexBuffer);
-        gl.glNormalPointer(GL10.GL_FLOAT, 0, normalsBuffer);
-
-        int renderMode = GL10.GL_LINES;
-        gl.glDrawElements(
-            renderMode, mFaces.length, GL10.GL_UNSIGNED_SHORT, mFacesBuffer);
-
-        gl.glDisableClientState(GL10.GL_NORMAL_ARRAY);
-        gl.glDisableClientState(GL10.GL_VERTEX_ARRAY);
+    /**
+     * @return the faces as 16 bit indices, only valid for models with at most
+     * {@link #SHORT_INDEX_LIMIT} vertices
+     */
+    ShortBuffer getShortIndices() {
+        ShortBuffer indices = allocateShorts(mFacesBuffer.capacity());
+        for (int i = 0; i < mFacesBuffer.capacity(); i++) {
+            indices.put(i, (short) mFacesBuffer.get(i));
+        }
+        return indices;
     }
 
-    private void writeObject(ObjectOutputStream out) throws IOException {
-        /* write vertices */
-        out.writeInt(mVertices.length);
-        for (int i = 0; i < mVertices.length; i++) {
-            out.writeFloat(mVertices[i]);
+    /**
+     * Splits the mesh into consecutive runs of triangles, each referencing at most
+     * {@link #SHORT_INDEX_LIMIT} vertices, and rebases their indices
+     */
+    ArrayList<Chunk> splitIntoChunks() {
+        ArrayList<Chunk> chunks = new ArrayList<Chunk>();
+        int[] owner = new int[getVertexCount()];
+        int[] local = new int[getVertexCount()];
+        int[] globals = new int[SHORT_INDEX_LIMIT];
+        short[] indices = new short[mFacesBuffer.capacity()];
+        Arrays.fill(owner, -1);
+
+        int vertexCount = 0;
+        int indexCount = 0;
+        for (int t = 0; t < mFacesBuffer.capacity(); t += 3) {
+            int added = 0;
+            for (int k = 0; k < 3; k++) {
+                if (owner[mFacesBuffer.get(t + k)] != chunks.size()) {
+                    added++;
+                }
+            }
+            if (vertexCount + added > SHORT_INDEX_LIMIT) {
+                chunks.add(new Chunk(globals, vertexCount, indices, indexCount));
+                vertexCount = 0;
+                indexCount = 0;
+            }
+
+            for (int k = 0; k < 3; k++) {
+                int index = mFacesBuffer.get(t + k);
+                if (owner[index] != chunks.size()) {
+                    owner[index] = chunks.size();
+                    local[index] = vertexCount;
+                    globals[vertexCount++] = index;
+                }
+                indices[indexCount++] = (short) local[index];
+            }
         }
-
-        /* write surface normals */
-        out.writeInt(mNormals.length);
-        for (int i = 0; i < mNormals.length; i++) {
-            out.writeFloat(mNormals[i]);
+        if (indexCount > 0) {
+            chunks.add(new Chunk(globals, vertexCount, indices, indexCount));
         }
 
-        /* write faces */
-        out.writeInt(mFaces.length);
-        for (int i = 0; i < mFaces.length; i++) {
-            out.writeShort(mFaces[i]);
+        return chunks;
+    }
+
+    class Chunk {
+        final FloatBuffer vertices;
+        final FloatBuffer normals;
+        final ShortBuffer indices;
+
+        Chunk(int[] globals, int vertexCount, short[] indices, int indexCount) {
+            vertices = Mesh.allocateFloats(3 * vertexCount);
+            normals = Mesh.allocateFloats(3 * vertexCount);
+            for (int i = 0; i < vertexCount; i++) {
+                for (int k = 0; k < 3; k++) {
+                    vertices.put(mVertexBuffer.get(3 * globals[i] + k));
+                    normals.put(mNormalBuffer.get(3 * globals[i] + k));
+                }
+            }
+            vertices.rewind();
+            normals.rewind();
+            this.indices = allocateShorts(indexCount);
+            this.indices.put(indices, 0, indexCount);
+            this.indices.rewind();
         }
-        out.flush();
+    }
+
+    static ShortBuffer allocateShorts(int count) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(count * 2);
+        buffer.order(ByteOrder.nativeOrder());
+        return buffer.asShortBuffer();
     }
 
     private void readObject(ObjectInputStream in)
         throws IOException, ClassNotFoundException {
         /* read vertices */
-        float[] vertices = new float[in.readInt()];
-        for (int i = 0; i < vertices.length; i++) {
-            vertices[i] = in.readFloat();
+        FloatBuffer vertices = Mesh.allocateFloats(in.readInt());
+        for (int i = 0; i < vertices.capacity(); i++) {
+            vertices.put(i, in.readFloat());
         }
 
         /* read surface normals */
-        float[] normals = new float[in.readInt()];
-        for (int i = 0; i < normals.length; i++) {
-            normals[i] = in.readFloat();
+        FloatBuffer normals = Mesh.allocateFloats(in.readInt());
+        for (int i = 0; i < normals.capacity(); i++) {
+            normals.put(i, in.readFloat());
         }
 
-        /* read faces */
-        short[] faces = new short[in.readInt()];
-        for (int i = 0; i < faces.length; i++) {
-            faces[i] = in.readShort();
+        /* read faces, stored as unsigned shorts */
+        IntBuffer faces = Mesh.allocateInts(in.readInt());
+        for (int i = 0; i < faces.capacity(); i++) {
+            faces.put(i, in.readShort() & 0xFFFF);
         }
-        onInitialize(vertices, normals, faces);
+        onInitialize(new Mesh(vertices, normals, faces));
     }
 }
@@ -12,76 +12,187 @@ import android.content.Intent;
 import android.graphics.Bitmap;
 import android.graphics.Color;
 import android.net.Uri;
+import android.os.SystemClock;
 import android.renderscript.Allocation;
-import android.renderscript.Element;
-import android.renderscript.RenderScript;
-import android.renderscript.Type;
-
-import org.ejml.data.DenseMatrix64F;
-import org.ejml.factory.DecompositionFactory;
-import org.ejml.interfaces.decomposition.SingularValueDecomposition;
-import org.ejml.ops.CommonOps;
-
-import java.io.FileOutputStream;
-import java.io.ObjectOutputStream;
-import java.nio.FloatBuffer;
-import java.nio.ShortBuffer;
-import java.util.ArrayList;
+import android.util.Log;
+
+import java.io.File;
 import java.util.Calendar;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import de.hsrm.objectify.camera.Constants;
 import de.hsrm.objectify.database.DatabaseAdapter;
 import de.hsrm.objectify.database.DatabaseProvider;
-import de.hsrm.objectify.rendering.compute_normals.ScriptC_compute_normals;
-import de.hsrm.objectify.rendering.lh_integration.ScriptC_lh_integration;
+import de.hsrm.objectify.reconstruction.CalibratedNormalSolver;
+import de.hsrm.objectify.reconstruction.CapturePipeline;
+import de.hsrm.objectify.reconstruction.FrankotChellappaIntegrator;
+import de.hsrm.objectify.reconstruction.LuminancePlane;
+import de.hsrm.objectify.reconstruction.Mesh;
+import de.hsrm.objectify.reconstruction.MeshBuilder;
+import de.hsrm.objectify.reconstruction.MeshDecimator;
+import de.hsrm.objectify.reconstruction.ModelFile;
+import de.hsrm.objectify.reconstruction.MultigridIntegrator;
+import de.hsrm.objectify.reconstruction.NormalEncoder;
+import de.hsrm.objectify.reconstruction.Preprocessor;
+import de.hsrm.objectify.reconstruction.RelaxationIntegrator;
+import de.hsrm.objectify.reconstruction.RowBands;
+import de.hsrm.objectify.reconstruction.UncalibratedNormalSolver;
 import de.hsrm.objectify.utils.ArrayUtils;
 import de.hsrm.objectify.utils.BitmapUtils;
 import de.hsrm.objectify.utils.Size;
 import de.hsrm.objectify.utils.Storage;
 
-import static android.renderscript.Type.Builder;
-
 public class ReconstructionService extends IntentService {
     public static final String DIRECTORY_NAME = "dir_name";
     public static final String NOTIFICATION =
         "de.hsrm.objectify.android.service.receiver";
     public static final String GALLERY_ID = "gallery_id";
     public static final String MODEL_NAME = "model.kaw";
+    /* the model and coarser versions of it sampling every 2nd, 4th and 8th pixel */
+    public static final int MODEL_LEVELS = 4;
+    /* capture the foreground mask is segmented from, used by the capture pipeline */
+    public static final int MASK_IMAGE = 2;
     public static final String NORMAL_IMG_NAME = "normals.png";
     public static final String HEIGHT_IMG_NAME = "heights.png";
+    /* selects the normal estimation, calibrated light sources or SVD (uncalibrated) */
+    public static final String NORMAL_SOLVER = "normal_solver";
+    public static final String SOLVER_CALIBRATED = "calibrated";
+    public static final String SOLVER_SVD = "svd";
+    /* selects the heightfield integration and its stopping criterion */
+    public static final String INTEGRATOR = "integrator";
+    public static final String INTEGRATOR_MULTIGRID = "multigrid";
+    public static final String INTEGRATOR_JACOBI = "jacobi";
+    public static final String INTEGRATOR_FFT = "fft";
+    public static final String INTEGRATOR_SOR = "sor";
+    public static final String INTEGRATION_TOLERANCE = "integration_tolerance";
+    /* over-relaxation factor of the red-black SOR integration, 1 is plain Gauss-Seidel */
+    public static final String SOR_OMEGA = "sor_omega";
+    /* logs the relative residual after every iteration of the SOR integration, and of
+     * the Jacobi integration on the Java side */
+    public static final String INTEGRATION_TRACE = "integration_trace";
+    /* largest height deviation of the decimated mesh, 0 keeps the full resolution */
+    public static final String MESH_ERROR = "mesh_error";
+    /* selects where the normal encoding and the Jacobi and SOR integration run, on
+     * RenderScript or on all cores of the Java side */
+    public static final String COMPUTE_BACKEND = "compute_backend";
+    public static final String BACKEND_RENDERSCRIPT = "renderscript";
+    public static final String BACKEND_JAVA = "java";
+    private static final String TAG = "ReconstructionService";
     private static final int LH_ITERATIONS = 3000;
+    private static final int SOR_ITERATIONS = 300;
+    private static final float DEFAULT_SOR_OMEGA = 1.95f;
+    private static final float DEFAULT_MESH_ERROR = 0.5f;
+    /* number of image rows processed at once during normal estimation */
+    private static final int BAND_HEIGHT = 32;
+    /* longest wait for the capture pipeline to process the last captures */
+    private static final int PIPELINE_TIMEOUT_SECONDS = 10;
+    /* downsampling factor of the normal map written as preview image */
+    private static final int PREVIEW_SCALE = 2;
     private int mWidth;
     private int mHeight;
+    private RenderScriptBackend mRenderScript;
+    private ExecutorService mExecutor;
+    private RowBands mBands;
 
     public ReconstructionService() {
         super("ReconstructionService");
     }
 
-    private ArrayList<Bitmap> readImages(String dirName) {
-        ArrayList<Bitmap> images = new ArrayList<Bitmap>();
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        /* the compute context, its scripts and allocations live as long as the service,
+         * so queued reconstructions neither create a new context nor reload scripts */
+        mRenderScript = new RenderScriptBackend(getApplicationContext());
+        /* the Java backend splits its passes into one band of rows per core */
+        int cores = Runtime.getRuntime().availableProcessors();
+        mExecutor = Executors.newFixedThreadPool(cores);
+        mBands = new RowBands(mExecutor, cores);
+    }
+
+    @Override
+    public void onDestroy() {
+        mRenderScript.destroy();
+        mExecutor.shutdown();
+        super.onDestroy();
+    }
+
+    /**
+     * @return false if the captures could not be preprocessed in time, they are read
+     * from storage then
+     */
+    private boolean awaitPipeline(CapturePipeline pipeline) {
+        try {
+            if (pipeline.await(PIPELINE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                return true;
+            }
+            Log.w(TAG, "capture pipeline did not finish, reading captures");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        pipeline.cancel();
+
+        return false;
+    }
+
+    /**
+     * Reads the captures into a preprocessor one at a time, the first one is the ambient
+     * capture. Every capture is read once and only a single one is held at any time
+     */
+    private Preprocessor readImages(String dirName) {
+        Preprocessor preprocessor = null;
         /* i from 0 to number of images + ambient image */
         for (int i = 0; i <= Constants.NUM_IMAGES; i++) {
-            Bitmap img =
-                BitmapUtils.openBitmap(Storage.getExternalRootDirectory() + "/" + dirName
-                    + "/" + Constants.IMAGE_NAME + i + "." + Constants.IMAGE_FORMAT);
-            images.add(img);
+            LuminancePlane img = BitmapUtils.openLuminancePlane(
+                Storage.getExternalRootDirectory() + "/" + dirName + "/"
+                    + Constants.IMAGE_NAME + i + "." + Constants.IMAGE_FORMAT);
+            if (preprocessor == null) {
+                mWidth = img.width;
+                mHeight = img.height;
+                preprocessor =
+                    new Preprocessor(mWidth, mHeight, Constants.NUM_IMAGES, MASK_IMAGE);
+            }
+            if (i == 0) {
+                preprocessor.setAmbient(img);
+            } else {
+                preprocessor.addImage(i - 1, img);
+            }
         }
 
-        return images;
+        return preprocessor;
     }
 
     @Override
     protected void onHandleIntent(Intent intent) {
         /* get images */
         String dirName = intent.getStringExtra(DIRECTORY_NAME);
-        ArrayList<Bitmap> images = readImages(dirName);
-
-        mWidth = images.get(0).getWidth();
-        mHeight = images.get(0).getHeight();
-        /* subtract first ambient image from the remaining images */
-        Bitmap ambient = images.remove(0);
-        for (int i = 0; i < images.size(); i++) {
-            images.set(i, BitmapUtils.subtract(images.get(i), ambient));
+        String solver = intent.getStringExtra(NORMAL_SOLVER);
+        if (solver == null) {
+            solver = SOLVER_CALIBRATED;
+        }
+        String integrator = intent.getStringExtra(INTEGRATOR);
+        if (integrator == null) {
+            integrator = INTEGRATOR_MULTIGRID;
+        }
+        float tolerance = intent.getFloatExtra(
+            INTEGRATION_TOLERANCE, MultigridIntegrator.DEFAULT_TOLERANCE);
+        float omega = intent.getFloatExtra(SOR_OMEGA, DEFAULT_SOR_OMEGA);
+        boolean trace = intent.getBooleanExtra(INTEGRATION_TRACE, false);
+        float meshError = intent.getFloatExtra(MESH_ERROR, DEFAULT_MESH_ERROR);
+        boolean javaBackend = BACKEND_JAVA.equals(intent.getStringExtra(COMPUTE_BACKEND));
+        /* subtract first ambient image from the remaining images, gather the histogram
+         * for the mask on the way. Usually done while the images were taken already */
+        Preprocessor images;
+        CapturePipeline pipeline = CapturePipeline.take(dirName);
+        if (pipeline != null && awaitPipeline(pipeline)) {
+            images = pipeline.getPreprocessor();
+            mWidth = images.getWidth();
+            mHeight = images.getHeight();
+        } else {
+            pipeline = null;
+            images = readImages(dirName);
         }
         //        images.clear();
         //        for (int i = 0; i < Constants.NUM_IMAGES; i++) {
@@ -90,82 +201,100 @@ public class ReconstructionService extends IntentService {
         //                "/" + dirName + "/kai_small_" + i + ".png"));
         //        }
 
-        /* compute normals */
-        float[] normals = computeNormals(
-            images, BitmapUtils.convertToGrayscale(BitmapUtils.binarize(images.get(2))));
-        Bitmap Normals = BitmapUtils.convert(normals, mWidth, mHeight);
-        BitmapUtils.saveBitmap(Normals, dirName, NORMAL_IMG_NAME);
-
+        /* compute normals, on RenderScript they stay on the compute side until the
+         * integration is done */
+        long start = SystemClock.elapsedRealtime();
+        int[] mask = images.createMask();
+        float[] Z;
+        if (javaBackend) {
+            NormalEncoder encoder = new NormalEncoder(mBands);
+            float[] normals = new float[4 * mWidth * mHeight];
+            float[] rawNormals = solveNormals(images, solver, pipeline);
+            encoder.encode(rawNormals, mask, mWidth, mHeight, normals);
+            Log.d(TAG, "normal estimation (" + solver + ", java) took "
+                    + (SystemClock.elapsedRealtime() - start) + " ms");
+            int[] preview = encoder.preview(normals, mWidth, mHeight, PREVIEW_SCALE);
+            BitmapUtils.saveBitmap(previewBitmap(preview), dirName, NORMAL_IMG_NAME);
+
+            start = SystemClock.elapsedRealtime();
+            Z = heapHeightfield(normals, integrator, tolerance, omega, trace);
+            Log.d(TAG, "integration (" + integrator + ", java) took "
+                    + (SystemClock.elapsedRealtime() - start) + " ms");
+        } else {
+            Allocation allNormals = computeNormals(images, mask, solver, pipeline);
+            Log.d(TAG, "normal estimation (" + solver + ") took "
+                    + (SystemClock.elapsedRealtime() - start) + " ms");
+            int[] preview =
+                mRenderScript.preview(allNormals, mWidth, mHeight, PREVIEW_SCALE);
+            BitmapUtils.saveBitmap(previewBitmap(preview), dirName, NORMAL_IMG_NAME);
+
+            start = SystemClock.elapsedRealtime();
+            Z = localHeightfield(allNormals, integrator, tolerance, omega, trace);
+            Log.d(TAG, "integration (" + integrator + ") took "
+                    + (SystemClock.elapsedRealtime() - start) + " ms");
+            mRenderScript.recycle(allNormals);
+        }
         /* TODO: linear transformation depending on image size */
-        float[] Z = localHeightfield(normals);
         Z = ArrayUtils.linearTransform(Z, 0.0f, 50.0f);
-        int[] heightPixels = new int[mWidth * mHeight];
-        int idx = 0;
-        for (int i = 0; i < mHeight; i++) {
-            for (int j = 0; j < mWidth; j++) {
-                int z = (int) Z[i * mWidth + j];
-                heightPixels[idx++] = Color.rgb(z, z, z);
-            }
+        LuminancePlane heightPlane = new LuminancePlane(mWidth, mHeight);
+        for (int i = 0; i < Z.length; i++) {
+            heightPlane.data[i] = (byte) Z[i];
         }
+        BitmapUtils.saveBitmap(
+            BitmapUtils.createBitmap(heightPlane), dirName, HEIGHT_IMG_NAME);
 
-        Bitmap Height =
-            Bitmap.createBitmap(heightPixels, mWidth, mHeight, Bitmap.Config.ARGB_8888);
-        BitmapUtils.saveBitmap(Height, dirName, HEIGHT_IMG_NAME);
-
-        ObjectModel obj = createObjectModel(Z, normals, images.get(2));
+        /* only the foreground is triangulated */
+        boolean[] foreground = new boolean[mWidth * mHeight];
+        for (int i = 0; i < mask.length; i++) {
+            foreground[i] = mask[i] == Color.WHITE;
+        }
+        Mesh mesh;
+        if (meshError > 0.0f) {
+            mesh = new MeshDecimator(Z, foreground, mWidth, mHeight).build(meshError);
+        } else {
+            mesh = MeshBuilder.build(Z, foreground, mWidth, mHeight);
+        }
+        ObjectModel obj = new ObjectModel(mesh);
+        Log.d(TAG, "mesh reduced to " + obj.getVertexCount() + " of " + mWidth * mHeight
+                + " vertices, " + obj.getFaceCount() + " faces");
+        /* level of detail pyramid for the viewer. Every level is decimated from every
+         * other pixel of the previous one with twice its error, levels not coarser than
+         * the previous one are left out */
+        Mesh[] levels = new Mesh[MODEL_LEVELS];
+        float levelError = Math.max(meshError, DEFAULT_MESH_ERROR);
+        int faceCount = mesh.getFaceCount();
+        for (int level = 1; level < MODEL_LEVELS; level++) {
+            levelError *= 2.0f;
+            Mesh coarser =
+                new MeshDecimator(Z, foreground, mWidth, mHeight, 1 << level)
+                    .build(levelError);
+            if (coarser.getFaceCount() < faceCount) {
+                levels[level] = coarser;
+                faceCount = coarser.getFaceCount();
+            }
+        }
         //        OBJExport.write(obj, images.get(0), dirName);
-        String galleryId = writeDatabaseEntry(obj, new Size(mWidth, mHeight), dirName);
+        String galleryId =
+            writeDatabaseEntry(obj, levels, new Size(mWidth, mHeight), dirName);
 
         /* clean up and publish results */
         publishResult(galleryId);
     }
 
-    private ObjectModel createObjectModel(
-        float[] heights, float[] normals, Bitmap texture) {
-        FloatBuffer vertBuf = FloatBuffer.allocate(mWidth * mHeight * 3);
-        FloatBuffer normBuf = FloatBuffer.allocate(mWidth * mHeight * 3);
-        ArrayList<Short> indexes = new ArrayList<Short>();
-        vertBuf.rewind();
-        normBuf.rewind();
-
-        /* vertices and normals */
-        int idx = 0;
-        for (int y = 0; y < mHeight; y++) {
-            for (int x = 0; x < mWidth; x++) {
-                float[] imgPt =
-                    new float[] {Float.valueOf(x), Float.valueOf(y), heights[idx]};
-                float[] nVec = new float[] {
-                    normals[4 * idx + 0], normals[4 * idx + 1], normals[4 * idx + 2]};
-                vertBuf.put(imgPt);
-                normBuf.put(nVec);
-                idx += 1;
-            }
+    /**
+     * @param modelPath path of the model file, as stored in the database
+     * @return file of the given level of the model, the model file itself for level 0
+     */
+    public static File getLevelFile(String modelPath, int level) {
+        File model = new File(modelPath);
+        if (level == 0) {
+            return model;
         }
-
-        /* faces */
-        for (int i = 0; i < mHeight - 1; i++) {
-            for (int j = 0; j < mWidth - 1; j++) {
-                short index = (short) (j + (i * mWidth));
-                indexes.add(index);
-                indexes.add((short) (index + mWidth));
-                indexes.add((short) (index + 1));
-
-                indexes.add((short) (index + 1));
-                indexes.add((short) (index + mWidth));
-                indexes.add((short) (index + mWidth + 1));
-            }
-        }
-
-        ShortBuffer indexBuf = ShortBuffer.allocate(indexes.size());
-        indexBuf.rewind();
-        for (int i = 0; i < indexes.size(); i++) {
-            indexBuf.put(indexes.get(i));
-        }
-
-        return new ObjectModel(vertBuf.array(), normBuf.array(), indexBuf.array());
+        return new File(model.getParentFile(), "model_lod" + level + ".kaw");
     }
 
-    private String writeDatabaseEntry(ObjectModel objectModel, Size dim, String dirName) {
+    private String writeDatabaseEntry(
+        ObjectModel objectModel, Mesh[] levels, Size dim, String dirName) {
         /* initialize content resolver and database write */
         ContentResolver cr = getContentResolver();
         ContentValues values = new ContentValues();
@@ -180,14 +309,16 @@ public class ReconstructionService extends IntentService {
         Calendar cal = Calendar.getInstance();
         String date = String.valueOf(cal.getTimeInMillis());
 
-        /* write 3d reconstruction to disk */
+        /* write 3d reconstruction and its coarser levels to disk */
         String filePath =
             Storage.getExternalRootDirectory() + "/" + dirName + "/" + MODEL_NAME;
         try {
-            ObjectOutputStream objOutput =
-                new ObjectOutputStream(new FileOutputStream(filePath));
-            objOutput.writeObject(objectModel);
-            objOutput.close();
+            objectModel.save(filePath);
+            for (int level = 1; level < levels.length; level++) {
+                if (levels[level] != null) {
+                    ModelFile.write(getLevelFile(filePath, level), levels[level]);
+                }
+            }
 
             /* write object database entry */
             values.put(DatabaseAdapter.OBJECT_FILE_PATH_KEY, filePath);
@@ -199,10 +330,14 @@ public class ReconstructionService extends IntentService {
             values.put(DatabaseAdapter.GALLERY_IMAGE_PATH_KEY, dirName);
             values.put(DatabaseAdapter.GALLERY_DATE_KEY, date);
             values.put(DatabaseAdapter.GALLERY_DIMENSION_KEY, dim.toString());
-            values.put(DatabaseAdapter.GALLERY_FACES_KEY, objectModel.getFacesSize());
+            values.put(DatabaseAdapter.GALLERY_FACES_KEY, objectModel.getFaceCount());
             values.put(
-                DatabaseAdapter.GALLERY_VERTICES_KEY, objectModel.getVerticesSize());
+                DatabaseAdapter.GALLERY_VERTICES_KEY, objectModel.getVertexCount());
             values.put(DatabaseAdapter.GALLERY_OBJECT_ID_KEY, objectID);
+            /* size of the mesh covering the whole image, before background removal */
+            values.put(DatabaseAdapter.GALLERY_FULL_FACES_KEY,
+                2 * (dim.width - 1) * (dim.height - 1));
+            values.put(DatabaseAdapter.GALLERY_FULL_VERTICES_KEY, dim.width * dim.height);
             Uri galleryResultUri = cr.insert(galleryUri, values);
             return galleryResultUri.getLastPathSegment();
 
@@ -213,110 +348,142 @@ public class ReconstructionService extends IntentService {
         return null;
     }
 
-    private float[] localHeightfield(float[] normals) {
-        /* create RenderScript context used to communicate with RenderScript. Afterwards
-         * create the
-         * actual script, which will do the real work */
-        RenderScript rs = RenderScript.create(getApplicationContext());
-        ScriptC_lh_integration lhIntegration = new ScriptC_lh_integration(rs);
-
-        /* set params for the generator */
-        lhIntegration.set_width(mWidth);
-        lhIntegration.set_height(mHeight);
-
-        /* create allocation input to RenderScript. Avoid error since API 20:
-           API 20+ only allows simple 1D allocations to be used with bind. */
-        Type normType =
-            new Builder(rs, Element.F32_4(rs)).setX(mWidth * mHeight).create();
-
-        Allocation allInNormals = Allocation.createTyped(rs, normType);
-        allInNormals.copyFromUnchecked(normals);
-
-        Type heightType =
-            new Builder(rs, Element.F32(rs)).setX(mWidth * mHeight).create();
-        Allocation allOutHeights = Allocation.createTyped(rs, heightType);
-
-        /* bind normals and heights data to pNormals and pHeights pointer inside
-         * RenderScript */
-        lhIntegration.bind_pNormals(allInNormals);
-        lhIntegration.bind_pHeights(allOutHeights);
-
-        /* pass the input to RenderScript */
-        for (int i = 0; i < LH_ITERATIONS; i++) {
-            lhIntegration.forEach_integrate(allInNormals, allOutHeights);
+    private float[] localHeightfield(Allocation normals, String integrator,
+        float tolerance, float omega, boolean trace) {
+        if (INTEGRATOR_JACOBI.equals(integrator)) {
+            return mRenderScript.jacobi(normals, mWidth, mHeight, LH_ITERATIONS);
+        } else if (INTEGRATOR_SOR.equals(integrator)) {
+            float[] heights = mRenderScript.redBlack(
+                normals, mWidth, mHeight, SOR_ITERATIONS, omega, trace);
+            if (trace) {
+                logResiduals(integrator, mRenderScript.getResiduals());
+            }
+            return heights;
         }
 
-        /* save output from RenderScript */
-        float[] heights = new float[mWidth * mHeight];
-        allOutHeights.copyTo(heights);
-
-        return heights;
+        /* the integrators running on the Java side need the normals on the heap */
+        float[] heapNormals = new float[4 * mWidth * mHeight];
+        normals.copyTo(heapNormals);
+        return heapHeightfield(heapNormals, integrator, tolerance, omega, trace);
     }
 
-    private float[] computeNormals(ArrayList<Bitmap> images, Bitmap Mask) {
-        /* populate A */
-        double[][] a = new double[mWidth * mHeight][Constants.NUM_IMAGES];
-        int[] imgData = new int[mWidth * mHeight];
-        for (int k = 0; k < Constants.NUM_IMAGES; k++) {
-            int idx = 0;
-            images.get(k).getPixels(imgData, 0, mWidth, 0, 0, mWidth, mHeight);
-            for (int i = 0; i < mHeight; i++) {
-                for (int j = 0; j < mWidth; j++) {
-                    int c = imgData[i * mWidth + j];
-                    a[idx++][k] = Color.red(c) + Color.green(c) + Color.blue(c);
-                }
+    private float[] heapHeightfield(float[] normals, String integrator, float tolerance,
+        float omega, boolean trace) {
+        if (INTEGRATOR_JACOBI.equals(integrator) || INTEGRATOR_SOR.equals(integrator)) {
+            RelaxationIntegrator relaxation = INTEGRATOR_JACOBI.equals(integrator)
+                ? RelaxationIntegrator.jacobi(mBands, LH_ITERATIONS)
+                : RelaxationIntegrator.redBlack(mBands, SOR_ITERATIONS, omega);
+            relaxation.setTrace(trace);
+            float[] heights = relaxation.integrate(normals, mWidth, mHeight);
+            if (trace) {
+                logResiduals(integrator, relaxation.getResiduals());
             }
+            Log.d(TAG, integrator + " reached residual " + relaxation.getResidual());
+            return heights;
+        } else if (INTEGRATOR_FFT.equals(integrator)) {
+            /* best suited for captures where the mask covers most of the frame */
+            return new FrankotChellappaIntegrator().integrate(normals, mWidth, mHeight);
         }
 
-        DenseMatrix64F A = new DenseMatrix64F(a);
-        CommonOps.transpose(A);
-        SingularValueDecomposition<DenseMatrix64F> svd =
-            DecompositionFactory.svd(A.numRows, A.numCols, false, true, true);
+        MultigridIntegrator multigrid = new MultigridIntegrator(
+            tolerance, MultigridIntegrator.DEFAULT_MAX_ITERATIONS);
+        float[] heights = multigrid.integrate(normals, mWidth, mHeight);
+        Log.d(TAG, "multigrid converged to " + multigrid.getResidual() + " after "
+                + multigrid.getIterations() + " iterations");
 
-        /* TODO: catch java.lang.OutOfMemoryError */
-        if (!svd.decompose(A)) {
-            throw new RuntimeException("Decomposition failed");
-        }
-
-        /* speeding up computation, SVD from A^TA instead of AA^T */
-        DenseMatrix64F EV = svd.getV(null, false);
+        return heights;
+    }
 
-        /* create RenderScript context */
-        RenderScript rs = RenderScript.create(getApplicationContext());
-        ScriptC_compute_normals cmpNormals = new ScriptC_compute_normals(rs);
+    private void logResiduals(String integrator, float[] residuals) {
+        for (int i = 0; i < residuals.length; i++) {
+            Log.d(TAG, integrator + " iteration " + (i + 1) + ": residual "
+                    + residuals[i]);
+        }
+    }
 
-        /* set params for the generator */
-        cmpNormals.set_width(mWidth);
+    /**
+     * Estimates the encoded normals of all pixels. The returned allocation belongs to the
+     * allocation pool and has to be recycled by the caller
+     */
+    private Allocation computeNormals(Preprocessor images, int[] mask, String solver,
+        CapturePipeline pipeline) {
+        float[] rawNormals = solveNormals(images, solver, pipeline);
+        return mRenderScript.encode(rawNormals, mask, mWidth, mHeight);
+    }
 
-        /* create allocation input to RenderScriptAvoid error since API 20:
-           API 20+ only allows simple 1D allocations to be used with bind. */
-        Type dataType =
-            new Builder(rs, Element.F32_4(rs)).setX(mWidth * mHeight).create();
-        Allocation allInData = Allocation.createTyped(rs, dataType);
-        allInData.copyFromUnchecked(ArrayUtils.toFloatArray(EV.data));
+    /**
+     * @param pipeline pipeline the images were preprocessed by, or null if they were read
+     *                 from storage
+     * @return the normals of all pixels as solved, 4 floats per pixel
+     */
+    private float[] solveNormals(Preprocessor images, String solver,
+        CapturePipeline pipeline) {
+        if (SOLVER_SVD.equals(solver)) {
+            return uncalibratedNormals(images,
+                pipeline != null ? pipeline.getSolver() : null);
+        }
+        if (pipeline != null && pipeline.getRawNormals() != null) {
+            /* solved while the images were taken */
+            return pipeline.getRawNormals();
+        }
+        return calibratedNormals(images);
+    }
 
-        /* create allocation for masked image */
-        Type maskType = new Builder(rs, Element.I32(rs)).setX(mWidth * mHeight).create();
-        Allocation allMask = Allocation.createTyped(rs, maskType);
-        int[] mask = new int[mWidth * mHeight];
-        Mask.getPixels(mask, 0, mWidth, 0, 0, mWidth, mHeight);
-        allMask.copyFrom(mask);
+    private Bitmap previewBitmap(int[] preview) {
+        return Bitmap.createBitmap(preview, mWidth / PREVIEW_SCALE,
+            mHeight / PREVIEW_SCALE, Bitmap.Config.ARGB_8888);
+    }
 
-        /* bind pMask and pData pointer inside RenderScript */
-        cmpNormals.bind_pMask(allMask);
+    /**
+     * Solves the normals of all pixels with the known light directions of the display
+     * light sources. Uses a single pseudo-inverse of the light matrix for all pixels
+     */
+    private float[] calibratedNormals(Preprocessor images) {
+        CalibratedNormalSolver solver =
+            new CalibratedNormalSolver(CalibratedNormalSolver.LIGHT_DIRECTIONS);
+        float[] rawNormals = new float[4 * mWidth * mHeight];
+        int stride = BAND_HEIGHT * mWidth;
+        float[] band = new float[Constants.NUM_IMAGES * stride];
+        for (int y = 0; y < mHeight; y += BAND_HEIGHT) {
+            int rows = Math.min(BAND_HEIGHT, mHeight - y);
+            images.readBand(y, rows, band, stride);
+            solver.solve(band, stride, rows * mWidth, rawNormals, y * mWidth);
+        }
 
-        /* create allocation for output */
-        Type normalsType =
-            new Builder(rs, Element.F32_4(rs)).setX(mWidth * mHeight).create();
-        Allocation allOutNormals = Allocation.createTyped(rs, normalsType);
+        return rawNormals;
+    }
 
-        cmpNormals.forEach_compute_normals(allInData, allOutNormals);
+    /**
+     * Estimates the normals up to a linear ambiguity with a SVD of the image matrix. Does
+     * not depend on the light directions, hence works with uncalibrated light sources.
+     * The image matrix is never built, instead its Gram matrix is accumulated band by
+     * band and decomposed, afterwards every band is projected onto the singular vectors
+     *
+     * @param accumulated solver holding the Gram matrix of all images already, or null
+     */
+    private float[] uncalibratedNormals(
+        Preprocessor images, UncalibratedNormalSolver accumulated) {
+        UncalibratedNormalSolver solver = accumulated;
+        float[] rawNormals = new float[4 * mWidth * mHeight];
+        int stride = BAND_HEIGHT * mWidth;
+        float[] band = new float[Constants.NUM_IMAGES * stride];
+        if (solver == null) {
+            solver = new UncalibratedNormalSolver(Constants.NUM_IMAGES);
+            for (int y = 0; y < mHeight; y += BAND_HEIGHT) {
+                int rows = Math.min(BAND_HEIGHT, mHeight - y);
+                images.readBand(y, rows, band, stride);
+                solver.accumulate(band, stride, rows * mWidth);
+            }
+        }
 
-        /* save output from RenderScript */
-        float[] normals = new float[mWidth * mHeight * 4];
-        allOutNormals.copyTo(normals);
+        solver.decompose();
+        for (int y = 0; y < mHeight; y += BAND_HEIGHT) {
+            int rows = Math.min(BAND_HEIGHT, mHeight - y);
+            images.readBand(y, rows, band, stride);
+            solver.project(band, stride, rows * mWidth, rawNormals, y * mWidth);
+        }
 
-        return normals;
+        return rawNormals;
     }
 
     private void publishResult(String galleryId) {
@@ -0,0 +1,222 @@
+/*
+ * Objectify. Copyright (c) 2011-2016. Kai Wolf. All rights reserved.
+ * Redistribution and use in source form with or without modification is not permitted.
+ */
+
+package de.hsrm.objectify.rendering;
+
+import android.content.Context;
+import android.renderscript.Allocation;
+import android.renderscript.Element;
+import android.renderscript.RenderScript;
+
+import de.hsrm.objectify.rendering.compute_normals.ScriptC_compute_normals;
+import de.hsrm.objectify.rendering.lh_integration.ScriptC_lh_integration;
+
+/**
+ * Normal encoding and relaxation on RenderScript, the counterpart of
+ * {@link de.hsrm.objectify.reconstruction.NormalEncoder} and
+ * {@link de.hsrm.objectify.reconstruction.RelaxationIntegrator}. The context, its scripts
+ * and allocations live until {@link #destroy}, so consecutive reconstructions neither
+ * create a new context nor reload scripts.
+ */
+public class RenderScriptBackend {
+    private final RenderScript mRS;
+    private final ScriptC_compute_normals mComputeNormals;
+    private final ScriptC_lh_integration mLhIntegration;
+    private final AllocationPool mAllocations;
+    private float[] mResiduals;
+
+    public RenderScriptBackend(Context context) {
+        mRS = RenderScript.create(context);
+        mComputeNormals = new ScriptC_compute_normals(mRS);
+        mLhIntegration = new ScriptC_lh_integration(mRS);
+        mAllocations = new AllocationPool(mRS);
+    }
+
+    public void destroy() {
+        mAllocations.destroy();
+        mComputeNormals.destroy();
+        mLhIntegration.destroy();
+        mRS.destroy();
+    }
+
+    /**
+     * Gives an allocation returned by {@link #encode} back to the pool
+     */
+    public void recycle(Allocation allocation) {
+        mAllocations.recycle(allocation);
+    }
+
+    /**
+     * @param rawNormals solved normals, 4 floats per pixel in the component order of the
+     *                   normal solvers
+     * @param mask       foreground mask, one ARGB pixel per pixel
+     * @return the encoded normals, 4 floats per pixel. The allocation belongs to the
+     * pool and has to be recycled by the caller
+     */
+    public Allocation encode(float[] rawNormals, int[] mask, int width, int height) {
+        int size = width * height;
+
+        /* set params for the generator */
+        mComputeNormals.set_width(width);
+
+        /* create allocation input to RenderScript */
+        Allocation allInData = mAllocations.obtain(Element.F32_4(mRS), size);
+        allInData.copyFromUnchecked(rawNormals);
+
+        /* create allocation for masked image */
+        Allocation allMask = mAllocations.obtain(Element.I32(mRS), size);
+        allMask.copyFrom(mask);
+
+        /* bind pMask and pData pointer inside RenderScript */
+        mComputeNormals.bind_pMask(allMask);
+
+        /* create allocation for output */
+        Allocation allOutNormals = mAllocations.obtain(Element.F32_4(mRS), size);
+
+        mComputeNormals.forEach_compute_normals(allInData, allOutNormals);
+        mAllocations.recycle(allInData);
+        mAllocations.recycle(allMask);
+
+        return allOutNormals;
+    }
+
+    /**
+     * Downsamples the encoded normals on the compute side, so only the preview image is
+     * copied to the heap
+     *
+     * @return pixels of the (width / scale) x (height / scale) preview
+     */
+    public int[] preview(Allocation normals, int width, int height, int scale) {
+        int previewWidth = width / scale;
+        int previewHeight = height / scale;
+
+        mComputeNormals.set_width(width);
+        mComputeNormals.set_previewWidth(previewWidth);
+        mComputeNormals.set_previewScale(scale);
+        mComputeNormals.bind_pNormals(normals);
+
+        Allocation allPreview =
+            mAllocations.obtain(Element.I32(mRS), previewWidth * previewHeight);
+        mComputeNormals.forEach_preview(allPreview);
+        int[] pixels = new int[previewWidth * previewHeight];
+        allPreview.copyTo(pixels);
+        mAllocations.recycle(allPreview);
+
+        return pixels;
+    }
+
+    public float[] jacobi(Allocation allInNormals, int width, int height,
+        int iterations) {
+        int size = width * height;
+
+        /* set params for the generator */
+        mLhIntegration.set_width(width);
+        mLhIntegration.set_height(height);
+
+        float[] heights = new float[size];
+        Allocation allOutHeights = mAllocations.obtain(Element.F32(mRS), size);
+        allOutHeights.copyFrom(heights);
+
+        /* bind normals and heights data to pNormals and pHeights pointer inside
+         * RenderScript */
+        mLhIntegration.bind_pNormals(allInNormals);
+        mLhIntegration.bind_pHeights(allOutHeights);
+
+        /* pass the input to RenderScript */
+        for (int i = 0; i < iterations; i++) {
+            mLhIntegration.forEach_integrate(allInNormals, allOutHeights);
+        }
+
+        /* save output from RenderScript */
+        allOutHeights.copyTo(heights);
+        mAllocations.recycle(allOutHeights);
+
+        return heights;
+    }
+
+    /**
+     * Red-black SOR on the GPU. Every iteration updates the red and then the black cells
+     * of the checkerboard, each pass reading from one allocation and writing to another,
+     * so the result does not depend on the order in which a device schedules the kernel
+     *
+     * @param trace true to record the residual after every iteration, see
+     *              {@link #getResiduals}
+     */
+    public float[] redBlack(Allocation allInNormals, int width, int height,
+        int iterations, float omega, boolean trace) {
+        int size = width * height;
+
+        mLhIntegration.set_width(width);
+        mLhIntegration.set_height(height);
+        mLhIntegration.set_omega(omega);
+
+        mLhIntegration.bind_pNormals(allInNormals);
+
+        Allocation allHeights = mAllocations.obtain(Element.F32(mRS), size);
+        Allocation allRedHeights = mAllocations.obtain(Element.F32(mRS), size);
+        float[] heights = new float[size];
+        allHeights.copyFrom(heights);
+
+        Allocation allResiduals = null;
+        float[] squares = null;
+        double rhs = 0.0;
+        mResiduals = null;
+        if (trace) {
+            allResiduals = mAllocations.obtain(Element.F32(mRS), size);
+            squares = new float[size];
+            mResiduals = new float[iterations];
+            /* the heights are all zero, so the residual is the right-hand side */
+            mLhIntegration.bind_pHeights(allHeights);
+            mLhIntegration.forEach_residual(allHeights, allResiduals);
+            rhs = sum(allResiduals, squares);
+        }
+
+        for (int i = 0; i < iterations; i++) {
+            /* red cells into the second allocation, black cells back into the first */
+            mLhIntegration.set_parity(0);
+            mLhIntegration.bind_pHeights(allHeights);
+            mLhIntegration.forEach_relax(allHeights, allRedHeights);
+            mLhIntegration.set_parity(1);
+            mLhIntegration.bind_pHeights(allRedHeights);
+            mLhIntegration.forEach_relax(allRedHeights, allHeights);
+
+            if (trace) {
+                mLhIntegration.bind_pHeights(allHeights);
+                mLhIntegration.forEach_residual(allHeights, allResiduals);
+                double sum = sum(allResiduals, squares);
+                mResiduals[i] = rhs > 0.0 ? (float) Math.sqrt(sum / rhs) : 0.0f;
+            }
+        }
+
+        allHeights.copyTo(heights);
+        mAllocations.recycle(allHeights);
+        mAllocations.recycle(allRedHeights);
+        if (trace) {
+            mAllocations.recycle(allResiduals);
+        }
+
+        return heights;
+    }
+
+    /**
+     * @return residual after every iteration of the last call to {@link #redBlack},
+     * relative to the right-hand side like
+     * {@link de.hsrm.objectify.reconstruction.RelaxationIntegrator#getResidual}, or null
+     * if it was not traced
+     */
+    public float[] getResiduals() {
+        return mResiduals;
+    }
+
+    private static double sum(Allocation allocation, float[] buffer) {
+        allocation.copyTo(buffer);
+        double sum = 0.0;
+        for (float value : buffer) {
+            sum += value;
+        }
+
+        return sum;
+    }
+}
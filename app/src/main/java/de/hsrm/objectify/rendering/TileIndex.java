@@ -0,0 +1,151 @@
+/*
+ * Objectify. Copyright (c) 2011-2016. Kai Wolf. All rights reserved.
+ * Redistribution and use in source form with or without modification is not permitted.
+ */
+
+package de.hsrm.objectify.rendering;
+
+import java.nio.Buffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+
+import de.hsrm.objectify.reconstruction.Mesh;
+
+/**
+ * Spatial index of a triangle mesh. The mesh is divided into a regular grid of tiles in
+ * the image plane and its triangles are sorted by the tile containing their centroid, so
+ * the triangles of every tile form one contiguous range of the index buffer. Each tile
+ * keeps the bounding box of its triangles for view frustum culling.
+ */
+class TileIndex {
+    /* tiles along each side of the mesh */
+    static final int TILES = 16;
+    /* first index of every tile, followed by the total number of indices */
+    final int[] offsets;
+    /* minimum and maximum x, y and z of every tile */
+    final float[] bounds;
+    /* the triangles in tile order, of the same type as the given indices. Only needed
+     * until uploaded */
+    Buffer indices;
+
+    /**
+     * @param indices three vertex indices per triangle, either 16 bit, read unsigned, or
+     *                32 bit
+     */
+    TileIndex(FloatBuffer vertices, Buffer indices) {
+        ShortBuffer shorts =
+            indices instanceof ShortBuffer ? (ShortBuffer) indices : null;
+        IntBuffer ints = indices instanceof IntBuffer ? (IntBuffer) indices : null;
+        int count = indices.capacity();
+
+        float minX = Float.MAX_VALUE, maxX = -Float.MAX_VALUE;
+        float minY = Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+        for (int i = 0; i < vertices.capacity(); i += 3) {
+            minX = Math.min(minX, vertices.get(i));
+            maxX = Math.max(maxX, vertices.get(i));
+            minY = Math.min(minY, vertices.get(i + 1));
+            maxY = Math.max(maxY, vertices.get(i + 1));
+        }
+        float scaleX = TILES / Math.max(maxX - minX, 1.0f);
+        float scaleY = TILES / Math.max(maxY - minY, 1.0f);
+
+        /* tile of every triangle, and the number of indices per tile */
+        int[] tiles = new int[count / 3];
+        offsets = new int[TILES * TILES + 1];
+        bounds = new float[6 * TILES * TILES];
+        for (int t = 0; t < bounds.length; t += 6) {
+            bounds[t] = bounds[t + 2] = bounds[t + 4] = Float.MAX_VALUE;
+            bounds[t + 1] = bounds[t + 3] = bounds[t + 5] = -Float.MAX_VALUE;
+        }
+        for (int i = 0; i < count; i += 3) {
+            float x = 0.0f;
+            float y = 0.0f;
+            for (int k = 0; k < 3; k++) {
+                int v = 3 * get(shorts, ints, i + k);
+                x += vertices.get(v);
+                y += vertices.get(v + 1);
+            }
+            int tx = Math.min((int) ((x / 3.0f - minX) * scaleX), TILES - 1);
+            int ty = Math.min((int) ((y / 3.0f - minY) * scaleY), TILES - 1);
+            int tile = ty * TILES + tx;
+            tiles[i / 3] = tile;
+            offsets[tile + 1] += 3;
+
+            for (int k = 0; k < 3; k++) {
+                int v = 3 * get(shorts, ints, i + k);
+                for (int c = 0; c < 3; c++) {
+                    bounds[6 * tile + 2 * c] =
+                        Math.min(bounds[6 * tile + 2 * c], vertices.get(v + c));
+                    bounds[6 * tile + 2 * c + 1] =
+                        Math.max(bounds[6 * tile + 2 * c + 1], vertices.get(v + c));
+                }
+            }
+        }
+        for (int tile = 0; tile < TILES * TILES; tile++) {
+            offsets[tile + 1] += offsets[tile];
+        }
+
+        /* counting sort of the triangles by tile */
+        int[] next = new int[TILES * TILES];
+        System.arraycopy(offsets, 0, next, 0, next.length);
+        if (shorts != null) {
+            ShortBuffer sorted = ObjectModel.allocateShorts(count);
+            for (int i = 0; i < count; i += 3) {
+                int position = next[tiles[i / 3]];
+                next[tiles[i / 3]] += 3;
+                for (int k = 0; k < 3; k++) {
+                    sorted.put(position + k, shorts.get(i + k));
+                }
+            }
+            this.indices = sorted;
+        } else {
+            IntBuffer sorted = Mesh.allocateInts(count);
+            for (int i = 0; i < count; i += 3) {
+                int position = next[tiles[i / 3]];
+                next[tiles[i / 3]] += 3;
+                for (int k = 0; k < 3; k++) {
+                    sorted.put(position + k, ints.get(i + k));
+                }
+            }
+            this.indices = sorted;
+        }
+    }
+
+    private static int get(ShortBuffer shorts, IntBuffer ints, int i) {
+        return shorts != null ? shorts.get(i) & 0xFFFF : ints.get(i);
+    }
+
+    /**
+     * @param mvp column-major model-view-projection matrix
+     * @return false if the bounding box of the tile lies entirely outside of one of the
+     * planes of the view frustum
+     */
+    boolean isVisible(int tile, float[] mvp) {
+        if (offsets[tile] == offsets[tile + 1]) {
+            return false;
+        }
+
+        /* bit set of the frustum planes all corners so far are outside of */
+        int outside = 0x3F;
+        for (int corner = 0; corner < 8 && outside != 0; corner++) {
+            float x = bounds[6 * tile + (corner & 1)];
+            float y = bounds[6 * tile + 2 + ((corner >> 1) & 1)];
+            float z = bounds[6 * tile + 4 + ((corner >> 2) & 1)];
+            float cx = mvp[0] * x + mvp[4] * y + mvp[8] * z + mvp[12];
+            float cy = mvp[1] * x + mvp[5] * y + mvp[9] * z + mvp[13];
+            float cz = mvp[2] * x + mvp[6] * y + mvp[10] * z + mvp[14];
+            float cw = mvp[3] * x + mvp[7] * y + mvp[11] * z + mvp[15];
+
+            int planes = 0;
+            if (cx < -cw) planes |= 1;
+            if (cx > cw) planes |= 2;
+            if (cy < -cw) planes |= 4;
+            if (cy > cw) planes |= 8;
+            if (cz < -cw) planes |= 16;
+            if (cz > cw) planes |= 32;
+            outside &= planes;
+        }
+        return outside == 0;
+    }
+}
@@ -7,15 +7,12 @@ package de.hsrm.objectify.rendering;
 
 import android.content.Context;
 import android.graphics.PointF;
+import android.opengl.GLES20;
 import android.opengl.GLSurfaceView;
-import android.opengl.GLU;
+import android.opengl.Matrix;
 import android.view.MotionEvent;
 import android.view.ScaleGestureDetector;
 
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.FloatBuffer;
-
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
 
@@ -42,6 +39,11 @@ public class TouchSurfaceView extends GLSurfaceView {
     private ObjectModelRenderer renderer;
     private ScaleGestureDetector scaleDetector;
     private float mScaling = 1;
+    /* scratch objects of the touch path, events arrive on the UI thread only */
+    private final PointF mTouchPoint = new PointF();
+    private final Quat4f mDragRotation = new Quat4f();
+    /* a coarser level of detail is drawn while the user rotates or zooms */
+    private volatile boolean mInteracting;
 
     public TouchSurfaceView(Context context, int width, int height) {
         super(context);
@@ -49,6 +51,7 @@ public class TouchSurfaceView extends GLSurfaceView {
         this.displayHeight = height;
 
         arcBall.setBounds((float) width, (float) height);
+        setEGLContextClientVersion(2);
         renderer = new ObjectModelRenderer();
         setRenderer(renderer);
         setRenderMode(GLSurfaceView.RENDERMODE_WHEN_DIRTY);
@@ -69,32 +72,56 @@ public class TouchSurfaceView extends GLSurfaceView {
         float x = event.getX();
         float y = event.getY();
         if (event.getPointerCount() > 1) {
+            mInteracting = true;
             scaleDetector.onTouchEvent(event);
             requestRender();
             return true;
         }
-        switch (event.getAction()) {
+        switch (event.getActionMasked()) {
             case MotionEvent.ACTION_DOWN:
                 synchronized (matrixLock) {
                     lastRot.copy(thisRot);
                 }
-                arcBall.click(new PointF(x, y));
+                mTouchPoint.set(x, y);
+                arcBall.click(mTouchPoint);
+                mInteracting = true;
                 break;
             case MotionEvent.ACTION_MOVE:
-                Quat4f thisQuat = new Quat4f();
-                arcBall.drag(new PointF(x, y), thisQuat);
+                mTouchPoint.set(x, y);
+                arcBall.drag(mTouchPoint, mDragRotation);
                 synchronized (matrixLock) {
-                    thisRot.setRotation(thisQuat);
-                    thisRot = Matrix4f.mul(lastRot, thisRot);
+                    thisRot.setRotation(mDragRotation);
+                    Matrix4f.mul(lastRot, thisRot, thisRot);
                 }
                 requestRender();
                 break;
+            case MotionEvent.ACTION_UP:
+            case MotionEvent.ACTION_CANCEL:
+                /* refine once the interaction is over */
+                mInteracting = false;
+                requestRender();
+                break;
         }
         return true;
     }
 
     public void setObjectModel(ObjectModel objectModel) {
-        renderer.setObjectModel(objectModel);
+        renderer.setLevels(new ObjectModel[] {objectModel});
+    }
+
+    /**
+     * @param levels levels of detail of a model, each one sampling every other pixel of
+     *               the previous one. Missing levels are null
+     */
+    public void setLevels(ObjectModel[] levels) {
+        renderer.setLevels(levels);
+    }
+
+    /**
+     * Gives tests access to the renderer, to drive it with a GL context of their own
+     */
+    GLSurfaceView.Renderer getRenderer() {
+        return renderer;
     }
 
     private class SimpleScaleListener
@@ -112,98 +139,170 @@ public class TouchSurfaceView extends GLSurfaceView {
 
     /**
      * This class takes care of the rendering of the model, implementing
-     * {@link GLSurfaceView.Renderer} and adapting for our needs.
+     * {@link GLSurfaceView.Renderer} and adapting for our needs. The model is kept in
+     * buffer objects and only uploaded again when it is replaced or the GL context is
+     * recreated. Its transform is computed once per model as well, drawing a frame does
+     * not allocate.
+     * <p/>
+     * Of the levels of detail, the coarsest one whose smallest triangles still cover at
+     * most a few pixels at the current zoom is drawn, or an even coarser one during
+     * interaction. The smallest triangles of level n span 2^n pixels of the heightfield,
+     * larger ones only cover regions that are flat at that level. Buffers of a level are
+     * uploaded when it is drawn the first time.
      *
      * @author kwolf001
      */
     private class ObjectModelRenderer implements GLSurfaceView.Renderer {
         public float mAngleX;
         public float mAngleY;
-        private ObjectModel mObjectModel = null;
+        /* projected size of the smallest triangles up to which a level is fine enough */
+        private static final float CELL_PIXELS = 2.0f;
+        /* levels to go coarser while the user interacts */
+        private static final int INTERACTION_LEVELS = 2;
+        /* replaced from the UI thread while a model is loading progressively */
+        private volatile ObjectModel[] mLevels = null;
+        /* the levels uploaded into mLevelBuffers */
+        private ObjectModel[] mUploadedLevels;
+        private ModelBuffers[] mLevelBuffers = new ModelBuffers[0];
+        private float mModelLength;
+        private int mViewportHeight;
+        private LitShader mShader;
+        private final float[] mProjection = new float[16];
+        private final float[] mView = new float[16];
+        /* centers the model and scales it to the unit cube */
+        private final float[] mModel = new float[16];
+        private final float[] mRotation = new float[16];
+        private final float[] mModelView = new float[16];
+        private final float[] mMVP = new float[16];
 
         public ObjectModelRenderer() {
             lastRot.setIdentity();
             thisRot.setIdentity();
             thisRot.map(matrix);
+            Matrix.setLookAtM(mView, 0, 0, 0, -2, 0, 0, 0, 0, 1, 0);
         }
 
         @Override
-        public void onSurfaceCreated(GL10 gl, EGLConfig config) {
-            gl.glEnable(GL10.GL_TEXTURE_2D);
-            gl.glShadeModel(GL10.GL_SMOOTH);
-            gl.glClearColor(0.2f, 0.3f, 0.5f, 1.0f);
-            gl.glClearDepthf(1.0f);
-            gl.glEnable(GL10.GL_DEPTH_TEST);
-            gl.glDepthFunc(GL10.GL_LEQUAL);
-            gl.glHint(GL10.GL_PERSPECTIVE_CORRECTION_HINT, GL10.GL_NICEST);
-            gl.glEnable(GL10.GL_NORMALIZE);
-
-            gl.glEnable(GL10.GL_LIGHTING);
-            gl.glEnable(GL10.GL_LIGHT0);
-            // LIGHT0
-            // define ambient component of first light
-            float[] light0Ambient = new float[] {0.9f, 0.9f, 0.9f, 1.0f};
-            ByteBuffer byteBuf = ByteBuffer.allocateDirect(light0Ambient.length * 4);
-            byteBuf.order(ByteOrder.nativeOrder());
-            FloatBuffer light0AmbientBuffer = byteBuf.asFloatBuffer();
-            light0AmbientBuffer.put(light0Ambient);
-            light0AmbientBuffer.rewind();
-            gl.glLightfv(GL10.GL_LIGHT0, GL10.GL_AMBIENT, light0AmbientBuffer);
-            // define diffuse component of first light
-            float[] light0Diffuse = new float[] {0.8f, 0.8f, 0.8f, 1.0f};
-            FloatBuffer light0diffuseBuffer = byteBuf.asFloatBuffer();
-            light0diffuseBuffer.put(light0Diffuse);
-            light0diffuseBuffer.rewind();
-            gl.glLightfv(GL10.GL_LIGHT0, GL10.GL_DIFFUSE, light0diffuseBuffer);
-            // define specular component of first light
-            float[] light0Specular = new float[] {0.8f, 0.8f, 0.8f, 1.0f};
-            FloatBuffer light0specularBuffer = byteBuf.asFloatBuffer();
-            light0specularBuffer.put(light0Specular);
-            light0specularBuffer.rewind();
-            gl.glLightfv(GL10.GL_LIGHT0, GL10.GL_SPECULAR, light0specularBuffer);
-            float[] light0Position = new float[] {1.0f, 3.0f, 3.0f, 1.0f};
-            FloatBuffer lightPosBuffer = byteBuf.asFloatBuffer();
-            lightPosBuffer.put(light0Position);
-            lightPosBuffer.rewind();
-            gl.glLightfv(GL10.GL_LIGHT0, GL10.GL_POSITION, lightPosBuffer);
-            gl.glLightf(GL10.GL_LIGHT0, GL10.GL_SPOT_CUTOFF, 65.0f);
-
-            gl.glMatrixMode(GL10.GL_MODELVIEW);
+        public void onSurfaceCreated(GL10 unused, EGLConfig config) {
+            GLES20.glClearColor(0.2f, 0.3f, 0.5f, 1.0f);
+            GLES20.glClearDepthf(1.0f);
+            GLES20.glEnable(GLES20.GL_DEPTH_TEST);
+            GLES20.glDepthFunc(GLES20.GL_LEQUAL);
+            /* no back-face culling, the heightfield is an open surface and lit from both
+             * sides, so its back has to stay visible once the model is turned around */
+
+            /* objects of the previous context, if any, are gone with it */
+            mShader = new LitShader();
+            mLevelBuffers = new ModelBuffers[0];
+            mUploadedLevels = null;
         }
 
         @Override
-        public void onDrawFrame(GL10 gl) {
-            gl.glColor4f(0, 0, 0, 0);
-            gl.glClear(GL10.GL_COLOR_BUFFER_BIT | GL10.GL_DEPTH_BUFFER_BIT);
+        public void onDrawFrame(GL10 unused) {
+            GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
 
-            gl.glMatrixMode(GL10.GL_MODELVIEW);
-            gl.glLoadIdentity();
-            GLU.gluLookAt(gl, 0, 0, -2, 0, 0, 0, 0, 1, 0);
-            thisRot.map(matrix);
-            gl.glMultMatrixf(matrix, 0);
-            gl.glScalef(mScaling, mScaling, mScaling);
-
-            if (mObjectModel != null) {
-                gl.glScalef(mObjectModel.getLength(), mObjectModel.getLength(),
-                    mObjectModel.getLength());
-                gl.glTranslatef(-mObjectModel.getMiddlePoint()[0],
-                    -mObjectModel.getMiddlePoint()[1], -mObjectModel.getMiddlePoint()[2]);
-                mObjectModel.draw(gl);
+            ObjectModel[] levels = mLevels;
+            if (levels != mUploadedLevels) {
+                updateLevels(levels);
+            }
+            int level = selectLevel(levels);
+            if (level < 0) {
+                return;
+            }
+            if (mLevelBuffers[level] == null) {
+                mLevelBuffers[level] = new ModelBuffers(levels[level]);
+            }
+
+            synchronized (matrixLock) {
+                thisRot.map(matrix);
+            }
+            Matrix.multiplyMM(mRotation, 0, mView, 0, matrix, 0);
+            Matrix.scaleM(mRotation, 0, mScaling, mScaling, mScaling);
+            Matrix.multiplyMM(mModelView, 0, mRotation, 0, mModel, 0);
+            Matrix.multiplyMM(mMVP, 0, mProjection, 0, mModelView, 0);
+
+            mShader.use(mMVP, mModelView);
+            mLevelBuffers[level].draw(mShader.positionHandle, mShader.normalHandle, mMVP);
+        }
+
+        /**
+         * Releases the buffers of levels no longer shown and computes the transform of
+         * the new model. Called only when the levels are replaced
+         */
+        private void updateLevels(ObjectModel[] levels) {
+            int count = levels == null ? 0 : levels.length;
+            ModelBuffers[] buffers = new ModelBuffers[count];
+            for (int i = 0; i < mLevelBuffers.length; i++) {
+                if (mLevelBuffers[i] == null) {
+                    continue;
+                }
+                if (i < count && mLevelBuffers[i].getObjectModel() == levels[i]) {
+                    buffers[i] = mLevelBuffers[i];
+                } else {
+                    mLevelBuffers[i].release();
+                }
+            }
+            mLevelBuffers = buffers;
+            mUploadedLevels = levels;
+
+            /* the coarsest level arrives first, the transform stays put while refining */
+            for (int i = count - 1; i >= 0; i--) {
+                if (levels[i] != null) {
+                    mModelLength = levels[i].getLength();
+                    float[] middle = levels[i].getMiddlePoint();
+                    Matrix.setIdentityM(mModel, 0);
+                    Matrix.scaleM(mModel, 0, mModelLength, mModelLength, mModelLength);
+                    Matrix.translateM(mModel, 0, -middle[0], -middle[1], -middle[2]);
+                    break;
+                }
+            }
+        }
+
+        /**
+         * @return index of the level to draw, the nearest available one to the level
+         * matching zoom and interaction, preferring finer ones. -1 if there is none
+         */
+        private int selectLevel(ObjectModel[] levels) {
+            if (levels == null) {
+                return -1;
+            }
+
+            /* at the distance of the model, one unit spans a quarter of the viewport */
+            float pixelsPerCell = mScaling * mModelLength * mViewportHeight / 4.0f;
+            int wanted = 0;
+            float cellPixels = pixelsPerCell;
+            while (wanted < levels.length - 1 && 2.0f * cellPixels <= CELL_PIXELS) {
+                cellPixels *= 2.0f;
+                wanted++;
+            }
+            if (mInteracting) {
+                wanted = Math.min(wanted + INTERACTION_LEVELS, levels.length - 1);
+            }
+
+            for (int i = wanted; i >= 0; i--) {
+                if (levels[i] != null) {
+                    return i;
+                }
+            }
+            for (int i = wanted + 1; i < levels.length; i++) {
+                if (levels[i] != null) {
+                    return i;
+                }
             }
+            return -1;
         }
 
         @Override
-        public void onSurfaceChanged(GL10 gl, int width, int height) {
+        public void onSurfaceChanged(GL10 unused, int width, int height) {
             float ratio = (float) width / height;
-            gl.glMatrixMode(GL10.GL_PROJECTION);
-            gl.glLoadIdentity();
-            gl.glFrustumf(-ratio, ratio, -1, 1, 1, 10);
-            gl.glViewport(0, 0, width, height);
+            Matrix.frustumM(mProjection, 0, -ratio, ratio, -1, 1, 1, 10);
+            GLES20.glViewport(0, 0, width, height);
+            mViewportHeight = height;
         }
 
-        public void setObjectModel(ObjectModel objectModel) {
-            mObjectModel = objectModel;
+        public void setLevels(ObjectModel[] levels) {
+            mLevels = levels;
             requestRender();
         }
     }
-}
\ No newline at end of file
+}
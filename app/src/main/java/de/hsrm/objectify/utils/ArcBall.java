@@ -20,6 +20,8 @@ public class ArcBall {
 
     Vector3f StVec;
     Vector3f EnVec;
+    /* axis of the drag rotation, reused for every drag event */
+    Vector3f Perp;
     float adjustWidth;
     float adjustHeight;
     int width, height;
@@ -33,6 +35,7 @@ public class ArcBall {
     public ArcBall(int width, int height) {
         StVec = new Vector3f();
         EnVec = new Vector3f();
+        Perp = new Vector3f();
         setBounds(width, height);
         this.width = width;
         this.height = height;
@@ -45,22 +48,20 @@ public class ArcBall {
      * @param vector vector from objects middlepoint to fingertouch
      */
     public void mapToSphere(PointF point, Vector3f vector) {
-        PointF tempPoint = new PointF(point.x, point.y);
+        float x = (point.x * this.adjustWidth) - 1.0f;
+        float y = (point.y * this.adjustHeight) - 1.0f;
 
-        tempPoint.x = (tempPoint.x * this.adjustWidth) - 1.0f;
-        tempPoint.y = (tempPoint.y * this.adjustHeight) - 1.0f;
-
-        float length = (tempPoint.x * tempPoint.x) + (tempPoint.y * tempPoint.y);
+        float length = (x * x) + (y * y);
 
         if (length > 1.0f) {
             float norm = (float) (1.0 / Math.sqrt(length));
-            vector.x = tempPoint.x * norm;
-            vector.y = tempPoint.y * norm;
+            vector.x = x * norm;
+            vector.y = y * norm;
             vector.z = 0.0f;
 
         } else {
-            vector.x = tempPoint.x;
-            vector.y = tempPoint.y;
+            vector.x = x;
+            vector.y = y;
             vector.z = (float) Math.sqrt(1.0f - length);
         }
     }
@@ -90,10 +91,8 @@ public class ArcBall {
         this.mapToSphere(NewPt, EnVec);
 
         if (NewRot != null) {
-            Vector3f Perp = new Vector3f();
-
             Vector3f.cross(StVec, EnVec, Perp);
-            Perp = Vector3f.invert(Perp);
+            Vector3f.invert(Perp, Perp);
 
             if (Perp.length() > Epsilon) {
                 NewRot.x = Perp.x;
@@ -5,17 +5,19 @@
 
 package de.hsrm.objectify.utils;
 
-import android.graphics.Bitmap;
-import android.graphics.Matrix;
+import android.graphics.ImageFormat;
 import android.hardware.Camera;
 import android.hardware.Camera.Size;
 
 import java.util.List;
 
 public class CameraUtils {
-    public static Size determineTargetPictureSize(
+    /**
+     * @return the supported preview size closest to the desired number of pixels
+     */
+    public static Size determineTargetPreviewSize(
         Camera.Parameters params, int desiredResolution) {
-        List<Size> sizes = params.getSupportedPictureSizes();
+        List<Size> sizes = params.getSupportedPreviewSizes();
         Size targetSize = sizes.get(0);
         int delta = Integer.MAX_VALUE;
 
@@ -29,18 +31,20 @@ public class CameraUtils {
         return targetSize;
     }
 
-    public static Bitmap fixRotateMirrorImage(Bitmap src) {
-        Matrix rotateRight = new Matrix();
-        float[] mirrorY = {-1, 0, 0, 0, 1, 0, 0, 0, 1};
-        Matrix matrixMirrorY = new Matrix();
-        matrixMirrorY.setValues(mirrorY);
-        rotateRight.postConcat(matrixMirrorY);
-        rotateRight.preRotate(270);
-        final Bitmap rotMirrorImg = Bitmap.createBitmap(
-            src, 0, 0, src.getWidth(), src.getHeight(), rotateRight, true);
-        src.recycle();
-
-        return rotMirrorImg;
+    /**
+     * @return bytes of a NV21 preview frame of the given size, luminance plane followed
+     * by the interleaved chroma
+     */
+    public static int previewBufferSize(Size size) {
+        return pixelCount(size) * ImageFormat.getBitsPerPixel(ImageFormat.NV21) / 8;
+    }
+
+    /**
+     * Clockwise rotation that turns a frame of the front facing camera upright for the
+     * given display rotation, before it is mirrored horizontally
+     */
+    public static int getCaptureRotation(int displayRotation) {
+        return (displayRotation + 270) % 360;
     }
 
     private static int pixelCount(Size size) {
@@ -3,6 +3,10 @@
 
 int32_t width;
 const int *pMask;
+/* encoded normals and size of the downsampled preview */
+const float4 *pNormals;
+int32_t previewWidth;
+int32_t previewScale;
 
 float4 __attribute__((kernel))
 compute_normals(float4 in, uint32_t x, uint32_t y) {
@@ -17,4 +21,20 @@ compute_normals(float4 in, uint32_t x, uint32_t y) {
     float4 n = {sx, sy, sz, validFlag};
 
     return n;
-}
\ No newline at end of file
+}
+
+/* averages previewScale x previewScale encoded normals into one ARGB pixel */
+int __attribute__((kernel)) preview(uint32_t x) {
+    uint32_t px = (x % previewWidth) * previewScale;
+    uint32_t py = (x / previewWidth) * previewScale;
+
+    float3 sum = 0.0f;
+    for (int32_t j = 0; j < previewScale; j++) {
+        for (int32_t i = 0; i < previewScale; i++) {
+            sum += pNormals[(py + j) * width + px + i].xyz;
+        }
+    }
+    int3 c = convert_int3(sum / (float) (previewScale * previewScale));
+
+    return (int) (0xFF000000u | (c.x << 16) | (c.y << 8) | c.z);
+}
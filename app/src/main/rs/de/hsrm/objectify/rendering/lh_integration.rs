@@ -1,32 +1,70 @@
 #pragma version(1)
 #pragma rs java_package_name(de.hsrm.objectify.rendering.lh_integration)
 
+/* the allocations are one-dimensional, as bind requires since API 20. Kernels receive the
+ * linear pixel index as x and derive the image coordinates from it */
 int32_t width;
 int32_t height;
+/* over-relaxation factor and color (0 red, 1 black) of the cells updated by relax */
+float omega;
+int32_t parity;
 const float4 *pNormals;
 const float *pHeights;
 
-float __attribute__((kernel)) integrate(float4 in, uint32_t x, uint32_t y) {
-    float out = pHeights[(y * width) + x];
-
-    if (x < 1 || x >= width - 1 || y < 1 || y >= height - 1) { return out; }
-
-    float up    = pNormals[((y - 1) * width) + x].w;
-    float down  = pNormals[((y + 1) * width) + x].w;
-    float left  = pNormals[(y * width) + (x - 1)].w;
-    float right = pNormals[(y * width) + (x + 1)].w;
-
-    if (up == 1.0f && down == 1.0f && left == 1.0f && right == 1.0f) {
-        float zU  = pHeights[((y - 1) * width) + x];
-        float zD  = pHeights[((y + 1) * width) + x];
-        float zL  = pHeights[(y * width) + (x - 1)];
-        float zR  = pHeights[(y * width) + (x + 1)];
-        float nxC = in.x;
-        float nyC = in.y;
-        float nxU = pNormals[((y - 1) * width) + x].x;
-        float nyL = pNormals[(y * width) + (x - 1)].y;
-        out       = 1.0f / 4.0f * (zD + zU + zR + zL + nxU - nxC + nyL - nyC);
+static bool isActive(uint32_t px, uint32_t py) {
+    if (px < 1 || px >= width - 1 || py < 1 || py >= height - 1) { return false; }
+
+    float up    = pNormals[((py - 1) * width) + px].w;
+    float down  = pNormals[((py + 1) * width) + px].w;
+    float left  = pNormals[(py * width) + (px - 1)].w;
+    float right = pNormals[(py * width) + (px + 1)].w;
+
+    return up == 1.0f && down == 1.0f && left == 1.0f && right == 1.0f;
+}
+
+/* sum of the four neighbouring heights plus the divergence of the gradient field */
+static float neighbourSum(uint32_t px, uint32_t py) {
+    float zU  = pHeights[((py - 1) * width) + px];
+    float zD  = pHeights[((py + 1) * width) + px];
+    float zL  = pHeights[(py * width) + (px - 1)];
+    float zR  = pHeights[(py * width) + (px + 1)];
+    float nxC = pNormals[(py * width) + px].x;
+    float nyC = pNormals[(py * width) + px].y;
+    float nxU = pNormals[((py - 1) * width) + px].x;
+    float nyL = pNormals[(py * width) + (px - 1)].y;
+
+    return zD + zU + zR + zL + nxU - nxC + nyL - nyC;
+}
+
+float __attribute__((kernel)) integrate(float4 in, uint32_t x) {
+    uint32_t px = x % width;
+    uint32_t py = x / width;
+    float out   = pHeights[x];
+
+    if (isActive(px, py)) {
+        out = 1.0f / 4.0f * neighbourSum(px, py);
     }
 
     return out;
-}
\ No newline at end of file
+}
+
+/* one half of a red-black SOR iteration. pHeights has to be bound to the input
+ * allocation, the output has to be a different allocation */
+float __attribute__((kernel)) relax(float in, uint32_t x) {
+    uint32_t px = x % width;
+    uint32_t py = x / width;
+    if (((px + py) & 1) != parity || !isActive(px, py)) { return in; }
+
+    float gs = 1.0f / 4.0f * neighbourSum(px, py);
+    return in + omega * (gs - in);
+}
+
+/* squared residual of the Poisson equation, pHeights has to be bound to the input */
+float __attribute__((kernel)) residual(float in, uint32_t x) {
+    uint32_t px = x % width;
+    uint32_t py = x / width;
+    if (!isActive(px, py)) { return 0.0f; }
+
+    float r = neighbourSum(px, py) - 4.0f * in;
+    return r * r;
+}
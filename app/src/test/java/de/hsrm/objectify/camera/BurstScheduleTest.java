@@ -0,0 +1,141 @@
+/*
+ * Objectify. Copyright (c) 2011-2016. Kai Wolf. All rights reserved.
+ * Redistribution and use in source form with or without modification is not permitted.
+ */
+
+package de.hsrm.objectify.camera;
+
+import junit.framework.TestCase;
+
+/**
+ * Runs a burst capture against a simulated display and camera, as well as the single
+ * steps of the schedule
+ */
+public class BurstScheduleTest extends TestCase {
+    private static final int NUM_PATTERNS = 5;
+    private static final int SETTLE_FRAMES = 2;
+    private static final long MILLISECOND = 1000000L;
+    /* 60 Hz display, 30 fps camera */
+    private static final long VSYNC_PERIOD = 16666667L;
+    private static final long FRAME_INTERVAL = 33333333L;
+
+    /**
+     * Camera frames are exposed back to back and delivered just before the settle frames
+     * have passed. Every frame taken has to be exposed entirely under its own pattern.
+     */
+    public void testFramesExposedUnderTheirPattern() {
+        BurstSchedule burst = new BurstSchedule(
+            NUM_PATTERNS, SETTLE_FRAMES, VSYNC_PERIOD, FRAME_INTERVAL);
+        long latency = SETTLE_FRAMES * FRAME_INTERVAL - MILLISECOND;
+        /* the camera is not in phase with the display */
+        long exposureStart = 5 * MILLISECOND;
+        long vsync = 0;
+        long[] shownAt = new long[NUM_PATTERNS];
+        int taken = 0;
+        int discarded = 0;
+
+        while (!burst.isComplete()) {
+            long arrival = exposureStart + FRAME_INTERVAL + latency;
+            if (vsync <= arrival) {
+                int pattern = burst.onVsync(vsync);
+                if (pattern >= 0) {
+                    assertEquals(taken, pattern);
+                    shownAt[pattern] = vsync + VSYNC_PERIOD;
+                }
+                vsync += VSYNC_PERIOD;
+                continue;
+            }
+
+            int pattern = burst.tag(arrival);
+            if (pattern >= 0) {
+                assertEquals(taken, pattern);
+                assertTrue("frame exposed before pattern " + pattern + " was shown",
+                    exposureStart >= shownAt[pattern]);
+                burst.capture();
+                taken += 1;
+            } else {
+                discarded += 1;
+            }
+            exposureStart += FRAME_INTERVAL;
+        }
+
+        assertEquals(NUM_PATTERNS, taken);
+        assertTrue(discarded >= NUM_PATTERNS * SETTLE_FRAMES);
+        /* a pattern takes the vsync it is set in, the settle frames and its exposure */
+        assertTrue(exposureStart < 700 * MILLISECOND);
+    }
+
+    public void testDiscardsFramesDuringTransition() {
+        BurstSchedule burst = new BurstSchedule(
+            NUM_PATTERNS, SETTLE_FRAMES, VSYNC_PERIOD, FRAME_INTERVAL);
+        /* no pattern shown yet */
+        assertEquals(-1, burst.tag(0));
+
+        long shownAt = FRAME_INTERVAL + VSYNC_PERIOD;
+        assertEquals(0, burst.onVsync(FRAME_INTERVAL));
+        long settled = shownAt + (SETTLE_FRAMES + 1) * FRAME_INTERVAL;
+        assertEquals(-1, burst.tag(2 * FRAME_INTERVAL));
+        assertEquals(-1, burst.tag(3 * FRAME_INTERVAL));
+        assertEquals(-1, burst.tag(settled - 1));
+        assertEquals(0, burst.tag(settled + FRAME_INTERVAL / 2));
+
+        /* the pattern is taken, nothing is tagged until the next one is shown */
+        burst.capture();
+        long arrival = settled + 3 * FRAME_INTERVAL / 2;
+        assertEquals(-1, burst.tag(arrival));
+        assertEquals(1, burst.onVsync(arrival));
+        assertEquals(-1, burst.tag(arrival + FRAME_INTERVAL));
+    }
+
+    /**
+     * The expected interval is refined towards the actual rate of the preview frames
+     */
+    public void testRefinesFrameInterval() {
+        BurstSchedule burst =
+            new BurstSchedule(NUM_PATTERNS, SETTLE_FRAMES, VSYNC_PERIOD, VSYNC_PERIOD);
+        for (int i = 0; i < 50; i++) {
+            burst.tag(i * FRAME_INTERVAL);
+        }
+
+        assertEquals(FRAME_INTERVAL, burst.getFrameInterval(), MILLISECOND / 10);
+    }
+
+    /**
+     * Frames delivered in pairs shortly after each other neither shorten the interval
+     * below the nominal one nor let a frame through before the pattern has settled
+     */
+    public void testBunchedArrivalsKeepNominalInterval() {
+        BurstSchedule burst = new BurstSchedule(
+            NUM_PATTERNS, SETTLE_FRAMES, VSYNC_PERIOD, FRAME_INTERVAL);
+        assertEquals(0, burst.onVsync(0));
+        long settled = VSYNC_PERIOD + (SETTLE_FRAMES + 1) * FRAME_INTERVAL;
+
+        for (long arrival = 0; arrival < settled; arrival += 2 * FRAME_INTERVAL) {
+            assertEquals(-1, burst.tag(arrival));
+            assertTrue(burst.getFrameInterval() >= FRAME_INTERVAL);
+            if (arrival + MILLISECOND < settled) {
+                assertEquals(-1, burst.tag(arrival + MILLISECOND));
+                assertTrue(burst.getFrameInterval() >= FRAME_INTERVAL);
+            }
+        }
+    }
+
+    public void testIsComplete() {
+        BurstSchedule burst = new BurstSchedule(2, 0, VSYNC_PERIOD, FRAME_INTERVAL);
+        assertFalse(burst.isComplete());
+
+        assertEquals(0, burst.onVsync(0));
+        /* the next pattern waits until the current one has been taken */
+        assertEquals(-1, burst.onVsync(VSYNC_PERIOD));
+        assertEquals(0, burst.tag(VSYNC_PERIOD + FRAME_INTERVAL));
+        burst.capture();
+        assertFalse(burst.isComplete());
+
+        assertEquals(1, burst.onVsync(2 * VSYNC_PERIOD));
+        assertFalse(burst.isComplete());
+        assertEquals(1, burst.tag(3 * VSYNC_PERIOD + FRAME_INTERVAL));
+        burst.capture();
+        assertTrue(burst.isComplete());
+        assertEquals(-1, burst.onVsync(4 * VSYNC_PERIOD));
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Objectify. Copyright (c) 2011-2016. Kai Wolf. All rights reserved.
+ * Redistribution and use in source form with or without modification is not permitted.
+ */
+
+package de.hsrm.objectify.reconstruction;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Feeds the pipeline with random captures and checks it only does the work of the
+ * selected solver, with the same normals as solving all captures at once
+ */
+public class CapturePipelineTest extends TestCase {
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+    private static final int NUM_IMAGES = CalibratedNormalSolver.LIGHT_DIRECTIONS.length;
+    private static final int MASK_IMAGE = 0;
+    private static final long TIMEOUT_SECONDS = 10;
+    private LuminancePlane[] mCaptures;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        Random random = new Random(42);
+        /* ambient capture first, darker than the lit ones */
+        mCaptures = new LuminancePlane[NUM_IMAGES + 1];
+        for (int c = 0; c <= NUM_IMAGES; c++) {
+            byte[] data = new byte[WIDTH * HEIGHT];
+            for (int i = 0; i < data.length; i++) {
+                data[i] = (byte) (c == 0 ? random.nextInt(32) : random.nextInt(256));
+            }
+            mCaptures[c] = new LuminancePlane(WIDTH, HEIGHT, data);
+        }
+    }
+
+    public void testCalibratedMatchesSolve() throws InterruptedException {
+        CalibratedNormalSolver solver =
+            new CalibratedNormalSolver(CalibratedNormalSolver.LIGHT_DIRECTIONS);
+        CapturePipeline pipeline = process(solver);
+        assertNull(pipeline.getSolver());
+
+        int pixels = WIDTH * HEIGHT;
+        float[] band = new float[NUM_IMAGES * pixels];
+        pipeline.getPreprocessor().readBand(0, HEIGHT, band, pixels);
+        float[] expected = new float[4 * pixels];
+        solver.solve(band, pixels, pixels, expected, 0);
+
+        float[] actual = pipeline.getRawNormals();
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals("component " + i, expected[i], actual[i], 0.0f);
+        }
+    }
+
+    public void testUncalibratedSkipsNormals() throws InterruptedException {
+        CapturePipeline pipeline = process(null);
+
+        assertNotNull(pipeline.getSolver());
+        assertNull(pipeline.getRawNormals());
+    }
+
+    private CapturePipeline process(CalibratedNormalSolver solver)
+        throws InterruptedException {
+        CapturePipeline pipeline = new CapturePipeline(NUM_IMAGES, MASK_IMAGE, solver);
+        for (int c = 0; c <= NUM_IMAGES; c++) {
+            pipeline.submit(c, mCaptures[c]);
+        }
+        pipeline.finish();
+        assertTrue(pipeline.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        return pipeline;
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Objectify. Copyright (c) 2011-2016. Kai Wolf. All rights reserved.
+ * Redistribution and use in source form with or without modification is not permitted.
+ */
+
+package de.hsrm.objectify.reconstruction;
+
+import junit.framework.TestCase;
+
+/**
+ * Integrates surfaces of known heights in the frequency domain and compares the result
+ * inside the mask, as well as the flat background outside of it
+ */
+public class FrankotChellappaIntegratorTest extends TestCase {
+    private static final int WIDTH = 160;
+    private static final int HEIGHT = 120;
+
+    /**
+     * The forward differences of a surface are integrated exactly, up to a constant
+     */
+    public void testReproducesGaussianBump() {
+        float[] surface = new float[(WIDTH + 1) * (HEIGHT + 1)];
+        for (int y = 0; y <= HEIGHT; y++) {
+            for (int x = 0; x <= WIDTH; x++) {
+                double dx = x - 0.5 * WIDTH;
+                double dy = y - 0.5 * HEIGHT;
+                surface[y * (WIDTH + 1) + x] =
+                    (float) (30.0 * Math.exp(-(dx * dx + dy * dy) / 200.0));
+            }
+        }
+
+        /* gradients in the layout of compute_normals, all pixels valid */
+        float[] normals = new float[4 * WIDTH * HEIGHT];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int i = y * WIDTH + x;
+                int s = y * (WIDTH + 1) + x;
+                normals[4 * i] = 128.0f + surface[s + WIDTH + 1] - surface[s];
+                normals[4 * i + 1] = 128.0f + surface[s + 1] - surface[s];
+                normals[4 * i + 3] = 1.0f;
+            }
+        }
+
+        float[] heights =
+            new FrankotChellappaIntegrator().integrate(normals, WIDTH, HEIGHT);
+        float offset = heights[0] - surface[0];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                assertEquals(surface[y * (WIDTH + 1) + x],
+                    heights[y * WIDTH + x] - offset, 1e-3f);
+            }
+        }
+    }
+
+    public void testFullFrameSurface() {
+        TestSurface waves = TestSurface.waves(WIDTH, HEIGHT);
+        float[] heights = new FrankotChellappaIntegrator()
+            .integrate(waves.getEncodedNormals(), WIDTH, HEIGHT);
+
+        assertTrue(waves.correlation(heights) > 0.9999);
+    }
+
+    /**
+     * The zero gradients outside of the mask flatten the surface towards its border, the
+     * shape inside the mask is kept nonetheless
+     */
+    public void testMaskedSurface() {
+        TestSurface sphere = TestSurface.sphere(WIDTH, HEIGHT);
+        float[] heights = new FrankotChellappaIntegrator()
+            .integrate(sphere.getEncodedNormals(), WIDTH, HEIGHT);
+
+        assertTrue(sphere.correlation(heights) > 0.99);
+
+        float lowest = Float.MAX_VALUE;
+        for (int i = 0; i < heights.length; i++) {
+            if (sphere.foreground[i]) {
+                lowest = Math.min(lowest, heights[i]);
+            }
+        }
+        for (int i = 0; i < heights.length; i++) {
+            if (!sphere.foreground[i]) {
+                assertEquals("background pixel " + i, lowest, heights[i]);
+            }
+        }
+    }
+
+    public void testEmptyMaskGivesFlatHeights() {
+        float[] heights =
+            new FrankotChellappaIntegrator().integrate(new float[4 * 32 * 32], 32, 32);
+
+        for (float h : heights) {
+            assertEquals(0.0f, h);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Objectify. Copyright (c) 2011-2016. Kai Wolf. All rights reserved.
+ * Redistribution and use in source form with or without modification is not permitted.
+ */
+
+package de.hsrm.objectify.reconstruction;
+
+import junit.framework.TestCase;
+
+/**
+ * Decimates the heights of a sphere at the full resolution and at coarser steps, the way
+ * the level of detail pyramid of a model is built
+ */
+public class MeshDecimatorTest extends TestCase {
+    private static final int WIDTH = 160;
+    private static final int HEIGHT = 120;
+    private static final int LEVELS = 4;
+    private static final float MESH_ERROR = 0.5f;
+    private TestSurface mSphere;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mSphere = TestSurface.sphere(WIDTH, HEIGHT);
+    }
+
+    public void testFewerFacesThanGrid() {
+        Mesh grid = MeshBuilder.build(mSphere.heights, mSphere.foreground, WIDTH, HEIGHT);
+        Mesh mesh = new MeshDecimator(mSphere.heights, mSphere.foreground, WIDTH, HEIGHT)
+            .build(MESH_ERROR);
+
+        assertTrue(mesh.getFaceCount() > 0);
+        assertTrue(mesh.getFaceCount() < grid.getFaceCount() / 4);
+        assertOnGrid(mesh, 1);
+    }
+
+    /**
+     * Every level samples every other pixel of the previous one with twice its error and
+     * has fewer faces than the previous one
+     */
+    public void testLevelsGetCoarser() {
+        Mesh previous = new MeshDecimator(mSphere.heights, mSphere.foreground, WIDTH,
+            HEIGHT).build(MESH_ERROR);
+        float error = MESH_ERROR;
+        for (int level = 1; level < LEVELS; level++) {
+            error *= 2.0f;
+            int step = 1 << level;
+            Mesh mesh = new MeshDecimator(mSphere.heights, mSphere.foreground, WIDTH,
+                HEIGHT, step).build(error);
+
+            assertTrue("level " + level, mesh.getFaceCount() > 0);
+            assertTrue("level " + level, mesh.getFaceCount() < previous.getFaceCount());
+            assertOnGrid(mesh, step);
+            previous = mesh;
+        }
+    }
+
+    /**
+     * Vertices of a coarser level keep their pixel coordinates and heights
+     */
+    public void testStepKeepsPixelCoordinates() {
+        int step = 4;
+        Mesh mesh = new MeshDecimator(mSphere.heights, mSphere.foreground, WIDTH, HEIGHT,
+            step).build(0.0f);
+        Mesh grid =
+            MeshBuilder.build(mSphere.heights, mSphere.foreground, WIDTH, HEIGHT, step);
+
+        assertEquals(grid.getVertexCount(), mesh.getVertexCount());
+        for (int i = 0; i < mesh.getVertexCount(); i++) {
+            int x = (int) mesh.vertices.get(3 * i);
+            int y = (int) mesh.vertices.get(3 * i + 1);
+            assertTrue(mSphere.foreground[y * WIDTH + x]);
+            assertEquals(mSphere.heights[y * WIDTH + x], mesh.vertices.get(3 * i + 2));
+        }
+        float[] bounds = mesh.getBounds();
+        float[] gridBounds = grid.getBounds();
+        for (int i = 0; i < bounds.length; i++) {
+            assertEquals(gridBounds[i], bounds[i]);
+        }
+    }
+
+    private static void assertOnGrid(Mesh mesh, int step) {
+        for (int i = 0; i < mesh.getVertexCount(); i++) {
+            assertEquals(0.0f, mesh.vertices.get(3 * i) % step);
+            assertEquals(0.0f, mesh.vertices.get(3 * i + 1) % step);
+        }
+        for (int i = 0; i < mesh.indices.capacity(); i++) {
+            assertTrue(mesh.indices.get(i) < mesh.getVertexCount());
+        }
+    }
+}
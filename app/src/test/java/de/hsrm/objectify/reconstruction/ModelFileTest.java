@@ -0,0 +1,125 @@
+/*
+ * Objectify. Copyright (c) 2011-2016. Kai Wolf. All rights reserved.
+ * Redistribution and use in source form with or without modification is not permitted.
+ */
+
+package de.hsrm.objectify.reconstruction;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Writes the mesh of a sphere in both encodings, reads it back and compares it with the
+ * original, as well as the file sizes of both encodings
+ */
+public class ModelFileTest extends TestCase {
+    private static final int WIDTH = 160;
+    private static final int HEIGHT = 120;
+    private static final float MESH_ERROR = 0.5f;
+    /* 8 bits per octahedron component */
+    private static final float NORMAL_TOLERANCE = 0.02f;
+    private TestSurface mSphere;
+    private File mFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mSphere = TestSurface.sphere(WIDTH, HEIGHT);
+        mFile = File.createTempFile("model", ".kaw");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mFile.delete();
+        super.tearDown();
+    }
+
+    public void testRawRoundTrip() throws IOException {
+        Mesh mesh = MeshBuilder.build(mSphere.heights, mSphere.foreground, WIDTH, HEIGHT);
+        ModelFile.write(mFile, mesh, ModelFile.ENCODING_RAW);
+        assertTrue(ModelFile.isModelFile(mFile));
+        Mesh read = ModelFile.read(mFile);
+
+        assertMeshEquals(mesh, read, 0.0f, 0.0f);
+    }
+
+    public void testQuantizedRoundTrip() throws IOException {
+        Mesh mesh = MeshBuilder.build(mSphere.heights, mSphere.foreground, WIDTH, HEIGHT);
+        ModelFile.write(mFile, mesh, ModelFile.ENCODING_QUANTIZED);
+        assertTrue(ModelFile.isModelFile(mFile));
+        Mesh read = ModelFile.read(mFile);
+
+        /* heights are stored in 16 bits relative to the bounding box */
+        float[] bounds = mesh.getBounds();
+        float heightTolerance = (bounds[5] - bounds[4]) / 65535.0f;
+        assertMeshEquals(mesh, read, heightTolerance, NORMAL_TOLERANCE);
+    }
+
+    public void testQuantizedRoundTripOfDecimatedMesh() throws IOException {
+        Mesh mesh = new MeshDecimator(mSphere.heights, mSphere.foreground, WIDTH, HEIGHT)
+            .build(MESH_ERROR);
+        ModelFile.write(mFile, mesh, ModelFile.ENCODING_QUANTIZED);
+        Mesh read = ModelFile.read(mFile);
+
+        float[] bounds = mesh.getBounds();
+        float heightTolerance = (bounds[5] - bounds[4]) / 65535.0f;
+        assertMeshEquals(mesh, read, heightTolerance, NORMAL_TOLERANCE);
+    }
+
+    /**
+     * The quantized encoding of the full mesh is less than a tenth of the raw one, the
+     * decimated mesh with its longer index deltas still less than a quarter
+     */
+    public void testQuantizedIsSmaller() throws IOException {
+        Mesh full = MeshBuilder.build(mSphere.heights, mSphere.foreground, WIDTH, HEIGHT);
+        assertTrue(sizeRatio(full) > 10.0);
+
+        Mesh decimated = new MeshDecimator(mSphere.heights, mSphere.foreground, WIDTH,
+            HEIGHT).build(MESH_ERROR);
+        assertTrue(sizeRatio(decimated) > 4.0);
+    }
+
+    public void testOffGridMeshIsWrittenRaw() throws IOException {
+        Mesh mesh = new Mesh(Mesh.allocateFloats(9), Mesh.allocateFloats(9),
+            Mesh.allocateInts(3));
+        mesh.vertices.put(new float[] {0.5f, 0.0f, 1.0f, 1.0f, 0.0f, 2.0f, 0.0f, 1.0f,
+            3.0f});
+        mesh.normals.put(new float[] {0.0f, 0.0f, 1.0f, 0.0f, 0.0f, 1.0f, 0.0f, 0.0f,
+            1.0f});
+        mesh.indices.put(new int[] {0, 1, 2});
+        ModelFile.write(mFile, mesh, ModelFile.ENCODING_QUANTIZED);
+
+        assertMeshEquals(mesh, ModelFile.read(mFile), 0.0f, 0.0f);
+    }
+
+    /**
+     * @return size of the raw file divided by the size of the quantized file
+     */
+    private double sizeRatio(Mesh mesh) throws IOException {
+        ModelFile.write(mFile, mesh, ModelFile.ENCODING_RAW);
+        long raw = mFile.length();
+        ModelFile.write(mFile, mesh, ModelFile.ENCODING_QUANTIZED);
+        return (double) raw / mFile.length();
+    }
+
+    /**
+     * Vertices on the pixel grid keep their x and y, indices always have to match
+     */
+    private static void assertMeshEquals(Mesh expected, Mesh actual,
+        float heightTolerance, float normalTolerance) {
+        assertEquals(expected.getVertexCount(), actual.getVertexCount());
+        assertEquals(expected.getFaceCount(), actual.getFaceCount());
+        for (int i = 0; i < expected.vertices.capacity(); i++) {
+            float tolerance = i % 3 == 2 ? heightTolerance : 0.0f;
+            assertEquals("vertex component " + i, expected.vertices.get(i),
+                actual.vertices.get(i), tolerance);
+            assertEquals("normal component " + i, expected.normals.get(i),
+                actual.normals.get(i), normalTolerance);
+        }
+        for (int i = 0; i < expected.indices.capacity(); i++) {
+            assertEquals("index " + i, expected.indices.get(i), actual.indices.get(i));
+        }
+    }
+}
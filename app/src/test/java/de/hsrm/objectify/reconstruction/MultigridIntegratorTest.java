@@ -0,0 +1,99 @@
+/*
+ * Objectify. Copyright (c) 2011-2016. Kai Wolf. All rights reserved.
+ * Redistribution and use in source form with or without modification is not permitted.
+ */
+
+package de.hsrm.objectify.reconstruction;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Checks that the multigrid preconditioned CG integration reproduces a surface of known
+ * heights and the solution of a converged Jacobi run, and that its iteration count barely
+ * grows with the image size
+ */
+public class MultigridIntegratorTest extends TestCase {
+    private static final float TOLERANCE = 1e-4f;
+    private static final int MAX_ITERATIONS = 40;
+    /* enough sweeps for Jacobi to reach float precision on 160x120 */
+    private static final int JACOBI_ITERATIONS = 20000;
+    private ExecutorService mExecutor;
+    private RowBands mBands;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mExecutor = Executors.newSingleThreadExecutor();
+        mBands = new RowBands(mExecutor, 2);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mExecutor.shutdown();
+        super.tearDown();
+    }
+
+    /**
+     * The waves are zero on the image border, where the Poisson system fixes the heights
+     * to zero, so the exact differences are integrated back to the waves themselves
+     */
+    public void testReproducesKnownSurface() {
+        TestSurface waves = TestSurface.waves(160, 120);
+        MultigridIntegrator multigrid =
+            new MultigridIntegrator(TOLERANCE, MAX_ITERATIONS);
+        float[] heights = multigrid.integrate(waves.getEncodedNormals(), 160, 120);
+
+        assertTrue(multigrid.getResidual() < TOLERANCE);
+        float range = 0.0f;
+        for (float h : waves.heights) {
+            range = Math.max(range, Math.abs(h));
+        }
+        for (int i = 0; i < heights.length; i++) {
+            assertEquals("height " + i, waves.heights[i], heights[i], 1e-3f * range);
+        }
+    }
+
+    /**
+     * The sphere is masked, so the heights on its rim are fixed to zero rather than to
+     * those of the sphere. Both solvers have to agree on the solution nonetheless
+     */
+    public void testMatchesConvergedJacobi() {
+        float[] normals = TestSurface.sphere(160, 120).getEncodedNormals();
+        MultigridIntegrator multigrid =
+            new MultigridIntegrator(TOLERANCE, MAX_ITERATIONS);
+        float[] heights = multigrid.integrate(normals, 160, 120);
+        RelaxationIntegrator jacobi =
+            RelaxationIntegrator.jacobi(mBands, JACOBI_ITERATIONS);
+        float[] expected = jacobi.integrate(normals, 160, 120);
+
+        assertTrue(multigrid.getResidual() < TOLERANCE);
+        RelaxationIntegratorTest.assertHeightsMatch(expected, heights, 1e-4f);
+    }
+
+    public void testIterationsIndependentOfSize() {
+        for (int scale = 1; scale <= 4; scale *= 2) {
+            int width = 160 * scale;
+            int height = 120 * scale;
+            float[] normals = TestSurface.sphere(width, height).getEncodedNormals();
+            MultigridIntegrator multigrid =
+                new MultigridIntegrator(TOLERANCE, MAX_ITERATIONS);
+            multigrid.integrate(normals, width, height);
+
+            assertTrue(multigrid.getResidual() < TOLERANCE);
+            assertTrue(width + "x" + height + " took " + multigrid.getIterations(),
+                multigrid.getIterations() < 30);
+        }
+    }
+
+    public void testEmptyMaskGivesFlatHeights() {
+        float[] normals = new float[4 * 32 * 32];
+        float[] heights = new MultigridIntegrator().integrate(normals, 32, 32);
+
+        for (float h : heights) {
+            assertEquals(0.0f, h);
+        }
+    }
+}
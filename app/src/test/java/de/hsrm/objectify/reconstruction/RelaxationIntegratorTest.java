@@ -0,0 +1,121 @@
+/*
+ * Objectify. Copyright (c) 2011-2016. Kai Wolf. All rights reserved.
+ * Redistribution and use in source form with or without modification is not permitted.
+ */
+
+package de.hsrm.objectify.reconstruction;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Checks that the Jacobi and red-black SOR integration of the Java backend reach the
+ * solution of the multigrid integrator on the test sphere
+ */
+public class RelaxationIntegratorTest extends TestCase {
+    private static final int BANDS = 2;
+    /* iteration counts and relaxation factor of ReconstructionService */
+    private static final int JACOBI_ITERATIONS = 3000;
+    private static final int SOR_ITERATIONS = 300;
+    private static final float SOR_OMEGA = 1.95f;
+    private static final float REFERENCE_TOLERANCE = 1e-6f;
+    private ExecutorService mExecutor;
+    private RowBands mBands;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mExecutor = Executors.newFixedThreadPool(BANDS);
+        mBands = new RowBands(mExecutor, BANDS);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mExecutor.shutdown();
+        super.tearDown();
+    }
+
+    public void testJacobiMatchesMultigrid() {
+        /* Jacobi needs in the order of width * height sweeps, so a small image */
+        float[] normals = sphereNormals(64);
+        RelaxationIntegrator jacobi =
+            RelaxationIntegrator.jacobi(mBands, JACOBI_ITERATIONS);
+        float[] heights = jacobi.integrate(normals, 64, 64);
+
+        assertTrue(jacobi.getResidual() < 1e-3);
+        assertHeightsMatch(multigrid(normals, 64), heights, 1e-2f);
+    }
+
+    public void testRedBlackMatchesMultigrid() {
+        for (int size = 64; size <= 128; size *= 2) {
+            float[] normals = sphereNormals(size);
+            RelaxationIntegrator sor =
+                RelaxationIntegrator.redBlack(mBands, SOR_ITERATIONS, SOR_OMEGA);
+            float[] heights = sor.integrate(normals, size, size);
+
+            assertTrue(sor.getResidual() < 1e-3);
+            assertHeightsMatch(multigrid(normals, size), heights, 1e-4f);
+        }
+    }
+
+    public void testTracesResidualOfEveryIteration() {
+        float[] normals = sphereNormals(64);
+        RelaxationIntegrator sor =
+            RelaxationIntegrator.redBlack(mBands, SOR_ITERATIONS, SOR_OMEGA);
+        float[] expected = sor.integrate(normals, 64, 64);
+        assertNull(sor.getResiduals());
+
+        sor.setTrace(true);
+        float[] actual = sor.integrate(normals, 64, 64);
+        float[] residuals = sor.getResiduals();
+        assertEquals(SOR_ITERATIONS, residuals.length);
+        assertTrue(residuals[SOR_ITERATIONS - 1] < residuals[0]);
+        assertEquals((float) sor.getResidual(), residuals[SOR_ITERATIONS - 1]);
+        /* tracing does not change the result */
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], actual[i]);
+        }
+    }
+
+    public void testBandsDoNotChangeResult() {
+        float[] normals = sphereNormals(64);
+        RelaxationIntegrator single = RelaxationIntegrator.redBlack(
+            new RowBands(mExecutor, 1), SOR_ITERATIONS, SOR_OMEGA);
+        RelaxationIntegrator banded =
+            RelaxationIntegrator.redBlack(mBands, SOR_ITERATIONS, SOR_OMEGA);
+        float[] expected = single.integrate(normals, 64, 64);
+        float[] actual = banded.integrate(normals, 64, 64);
+
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], actual[i]);
+        }
+    }
+
+    private float[] sphereNormals(int size) {
+        return TestSurface.sphere(size, size).getEncodedNormals();
+    }
+
+    /**
+     * @return the reference solution, converged well beyond the tolerances compared with
+     */
+    private static float[] multigrid(float[] normals, int size) {
+        return new MultigridIntegrator(REFERENCE_TOLERANCE,
+            MultigridIntegrator.DEFAULT_MAX_ITERATIONS).integrate(normals, size, size);
+    }
+
+    /**
+     * @param tolerance largest difference relative to the largest height
+     */
+    static void assertHeightsMatch(float[] expected, float[] actual, float tolerance) {
+        float range = 0.0f;
+        for (float h : expected) {
+            range = Math.max(range, Math.abs(h));
+        }
+        assertTrue("heights are all zero", range > 0.0f);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals("height " + i, expected[i], actual[i], tolerance * range);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Objectify. Copyright (c) 2011-2016. Kai Wolf. All rights reserved.
+ * Redistribution and use in source form with or without modification is not permitted.
+ */
+
+package de.hsrm.objectify.reconstruction;
+
+/**
+ * Surfaces of known heights for the tests of the reconstruction, along with the encoded
+ * normals the heightfield integrators take
+ */
+class TestSurface {
+    final int width;
+    final int height;
+    final float[] heights;
+    /* pixels covered by the surface */
+    final boolean[] foreground;
+
+    private TestSurface(int width, int height) {
+        this.width = width;
+        this.height = height;
+        heights = new float[width * height];
+        foreground = new boolean[width * height];
+    }
+
+    /**
+     * Upper half of a sphere in the center of the image, surrounded by background
+     */
+    static TestSurface sphere(int width, int height) {
+        TestSurface surface = new TestSurface(width, height);
+        float radius = 0.4f * Math.min(width, height);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                float dx = (x - 0.5f * width) / radius;
+                float dy = (y - 0.5f * height) / radius;
+                float r2 = dx * dx + dy * dy;
+                if (r2 < 1.0f) {
+                    int i = y * width + x;
+                    surface.heights[i] = radius * (float) Math.sqrt(1.0f - r2);
+                    surface.foreground[i] = true;
+                }
+            }
+        }
+
+        return surface;
+    }
+
+    /**
+     * One period of sin(kx x) sin(ky y) across the whole image, which is zero on the
+     * image border, with a steepest slope of 1/2
+     */
+    static TestSurface waves(int width, int height) {
+        TestSurface surface = new TestSurface(width, height);
+        double kx = 2.0 * Math.PI / (width - 1);
+        double ky = 2.0 * Math.PI / (height - 1);
+        double amplitude = 0.5 / Math.max(kx, ky);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int i = y * width + x;
+                double wave = Math.sin(kx * x) * Math.sin(ky * y);
+                surface.heights[i] = (float) (amplitude * wave);
+                surface.foreground[i] = true;
+            }
+        }
+
+        return surface;
+    }
+
+    /**
+     * @return the forward differences of the heights in the layout of compute_normals,
+     * the derivative along y in the first and along x in the second component, offset
+     * by 128. Foreground pixels are flagged valid in the fourth component
+     */
+    float[] getEncodedNormals() {
+        float[] normals = new float[4 * width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int i = y * width + x;
+                normals[4 * i] = 128.0f;
+                normals[4 * i + 1] = 128.0f;
+                normals[4 * i + 2] = 128.0f;
+                if (y < height - 1) {
+                    normals[4 * i] += heights[i + width] - heights[i];
+                }
+                if (x < width - 1) {
+                    normals[4 * i + 1] += heights[i + 1] - heights[i];
+                }
+                normals[4 * i + 3] = foreground[i] ? 1.0f : 0.0f;
+            }
+        }
+
+        return normals;
+    }
+
+    /**
+     * @return Pearson correlation of the given heights with the heights of the surface
+     * over the foreground
+     */
+    double correlation(float[] actual) {
+        double meanA = 0.0, meanB = 0.0;
+        int count = 0;
+        for (int i = 0; i < heights.length; i++) {
+            if (foreground[i]) {
+                meanA += actual[i];
+                meanB += heights[i];
+                count++;
+            }
+        }
+        meanA /= count;
+        meanB /= count;
+
+        double ab = 0.0, aa = 0.0, bb = 0.0;
+        for (int i = 0; i < heights.length; i++) {
+            if (foreground[i]) {
+                double a = actual[i] - meanA;
+                double b = heights[i] - meanB;
+                ab += a * b;
+                aa += a * a;
+                bb += b * b;
+            }
+        }
+
+        return ab / Math.sqrt(aa * bb);
+    }
+}
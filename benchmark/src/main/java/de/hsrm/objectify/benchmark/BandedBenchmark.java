@@ -0,0 +1,43 @@
+/*
+ * Objectify. Copyright (c) 2011-2016. Kai Wolf. All rights reserved.
+ * Redistribution and use in source form with or without modification is not permitted.
+ */
+
+package de.hsrm.objectify.benchmark;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import de.hsrm.objectify.reconstruction.RowBands;
+
+/**
+ * Benchmarks of stages running on {@link RowBands}. By default there is one band per
+ * core, the scaling across cores is measured by overriding the parameter, e.g. with
+ * {@code -p bands=1,2,4}.
+ */
+public abstract class BandedBenchmark extends SceneBenchmark {
+    /* number of bands, 0 for one per available core */
+    @Param({"0"})
+    public int bands;
+    private ExecutorService mExecutor;
+    protected RowBands rowBands;
+
+    /**
+     * Has to be called first by the trial setup of every benchmark
+     */
+    @Override
+    protected void createScene() {
+        super.createScene();
+        int count = bands > 0 ? bands : Runtime.getRuntime().availableProcessors();
+        mExecutor = Executors.newFixedThreadPool(count);
+        rowBands = new RowBands(mExecutor, count);
+    }
+
+    @TearDown
+    public void shutdown() {
+        mExecutor.shutdown();
+    }
+}
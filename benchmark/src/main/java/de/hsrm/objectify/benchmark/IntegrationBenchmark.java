@@ -0,0 +1,55 @@
+/*
+ * Objectify. Copyright (c) 2011-2016. Kai Wolf. All rights reserved.
+ * Redistribution and use in source form with or without modification is not permitted.
+ */
+
+package de.hsrm.objectify.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+
+import de.hsrm.objectify.reconstruction.FrankotChellappaIntegrator;
+import de.hsrm.objectify.reconstruction.HeightfieldIntegrator;
+import de.hsrm.objectify.reconstruction.MultigridIntegrator;
+import de.hsrm.objectify.reconstruction.RelaxationIntegrator;
+
+/**
+ * Heightfield integration of the encoded normals of the scene, with the integrators and
+ * settings ReconstructionService uses. Jacobi and SOR run on the Java backend.
+ */
+public class IntegrationBenchmark extends BandedBenchmark {
+    /* iteration counts and relaxation factor of ReconstructionService */
+    private static final int JACOBI_ITERATIONS = 3000;
+    private static final int SOR_ITERATIONS = 300;
+    private static final float SOR_OMEGA = 1.95f;
+    @Param({"multigrid", "fft", "jacobi", "sor"})
+    public String integrator;
+    private float[] mNormals;
+    private HeightfieldIntegrator mIntegrator;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        createScene();
+        mNormals = scene.getEncodedNormals(rowBands);
+
+        if ("multigrid".equals(integrator)) {
+            mIntegrator = new MultigridIntegrator();
+        } else if ("fft".equals(integrator)) {
+            mIntegrator = new FrankotChellappaIntegrator();
+        } else if ("jacobi".equals(integrator)) {
+            mIntegrator = RelaxationIntegrator.jacobi(rowBands, JACOBI_ITERATIONS);
+        } else if ("sor".equals(integrator)) {
+            mIntegrator =
+                RelaxationIntegrator.redBlack(rowBands, SOR_ITERATIONS, SOR_OMEGA);
+        } else {
+            throw new IllegalArgumentException("Unknown integrator " + integrator);
+        }
+    }
+
+    @Benchmark
+    public float[] integrate() {
+        return mIntegrator.integrate(mNormals, size, size);
+    }
+}
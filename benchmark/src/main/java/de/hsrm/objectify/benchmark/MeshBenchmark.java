@@ -0,0 +1,50 @@
+/*
+ * Objectify. Copyright (c) 2011-2016. Kai Wolf. All rights reserved.
+ * Redistribution and use in source form with or without modification is not permitted.
+ */
+
+package de.hsrm.objectify.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Setup;
+
+import de.hsrm.objectify.reconstruction.Mesh;
+import de.hsrm.objectify.reconstruction.MeshBuilder;
+import de.hsrm.objectify.reconstruction.MeshDecimator;
+
+/**
+ * Creation of the model from the heightfield of the scene, the full resolution grid, the
+ * decimated mesh and the level of detail pyramid written next to the model.
+ */
+public class MeshBenchmark extends SceneBenchmark {
+    /* default mesh error and number of levels of ReconstructionService */
+    private static final float MESH_ERROR = 0.5f;
+    private static final int MODEL_LEVELS = 4;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        createScene();
+    }
+
+    @Benchmark
+    public Mesh grid() {
+        return MeshBuilder.build(scene.heights, scene.foreground, size, size);
+    }
+
+    @Benchmark
+    public Mesh decimate() {
+        return new MeshDecimator(scene.heights, scene.foreground, size, size)
+            .build(MESH_ERROR);
+    }
+
+    @Benchmark
+    public Mesh[] levels() {
+        Mesh[] levels = new Mesh[MODEL_LEVELS];
+        for (int level = 1; level < MODEL_LEVELS; level++) {
+            levels[level] = MeshBuilder.build(
+                scene.heights, scene.foreground, size, size, 1 << level);
+        }
+        return levels;
+    }
+}
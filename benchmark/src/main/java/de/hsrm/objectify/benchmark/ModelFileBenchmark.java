@@ -0,0 +1,57 @@
+/*
+ * Objectify. Copyright (c) 2011-2016. Kai Wolf. All rights reserved.
+ * Redistribution and use in source form with or without modification is not permitted.
+ */
+
+package de.hsrm.objectify.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+
+import de.hsrm.objectify.reconstruction.Mesh;
+import de.hsrm.objectify.reconstruction.MeshBuilder;
+import de.hsrm.objectify.reconstruction.ModelFile;
+
+/**
+ * Serialization of the full resolution model of the scene to a temporary file, in both
+ * encodings of {@link ModelFile}.
+ */
+public class ModelFileBenchmark extends SceneBenchmark {
+    @Param({"quantized", "raw"})
+    public String encoding;
+    private Mesh mMesh;
+    private File mFile;
+    private int mEncoding;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        createScene();
+        mMesh = MeshBuilder.build(scene.heights, scene.foreground, size, size);
+        mEncoding = "raw".equals(encoding)
+            ? ModelFile.ENCODING_RAW : ModelFile.ENCODING_QUANTIZED;
+        mFile = File.createTempFile("model", ".kaw");
+        ModelFile.write(mFile, mMesh, mEncoding);
+    }
+
+    @TearDown
+    public void deleteFile() {
+        mFile.delete();
+    }
+
+    @Benchmark
+    public File write() throws IOException {
+        ModelFile.write(mFile, mMesh, mEncoding);
+        return mFile;
+    }
+
+    @Benchmark
+    public Mesh read() throws IOException {
+        return ModelFile.read(mFile);
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Objectify. Copyright (c) 2011-2016. Kai Wolf. All rights reserved.
+ * Redistribution and use in source form with or without modification is not permitted.
+ */
+
+package de.hsrm.objectify.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Setup;
+
+import de.hsrm.objectify.reconstruction.CalibratedNormalSolver;
+import de.hsrm.objectify.reconstruction.NormalEncoder;
+import de.hsrm.objectify.reconstruction.UncalibratedNormalSolver;
+
+/**
+ * Normal estimation, solving the raw normals with either solver and encoding them like
+ * compute_normals. The solvers see all pixels as a single block.
+ */
+public class NormalsBenchmark extends BandedBenchmark {
+    private float[] mIntensities;
+    private int[] mMask;
+    private float[] mRawNormals;
+    private float[] mNormals;
+    private CalibratedNormalSolver mCalibrated;
+    private NormalEncoder mEncoder;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        createScene();
+        mIntensities = scene.getIntensities();
+        mMask = scene.getMask();
+        mRawNormals = new float[4 * size * size];
+        mNormals = new float[4 * size * size];
+        mCalibrated = new CalibratedNormalSolver(CalibratedNormalSolver.LIGHT_DIRECTIONS);
+        mCalibrated.solve(mIntensities, size * size, size * size, mRawNormals, 0);
+        mEncoder = new NormalEncoder(rowBands);
+    }
+
+    @Benchmark
+    public float[] calibrated() {
+        mCalibrated.solve(mIntensities, size * size, size * size, mRawNormals, 0);
+        return mRawNormals;
+    }
+
+    @Benchmark
+    public float[] uncalibrated() {
+        UncalibratedNormalSolver solver =
+            new UncalibratedNormalSolver(scene.getNumImages());
+        solver.accumulate(mIntensities, size * size, size * size);
+        solver.decompose();
+        solver.project(mIntensities, size * size, size * size, mRawNormals, 0);
+        return mRawNormals;
+    }
+
+    @Benchmark
+    public float[] encode() {
+        mEncoder.encode(mRawNormals, mMask, size, size, mNormals);
+        return mNormals;
+    }
+}
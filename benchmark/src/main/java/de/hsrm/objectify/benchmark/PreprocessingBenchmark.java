@@ -0,0 +1,57 @@
+/*
+ * Objectify. Copyright (c) 2011-2016. Kai Wolf. All rights reserved.
+ * Redistribution and use in source form with or without modification is not permitted.
+ */
+
+package de.hsrm.objectify.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Setup;
+
+import de.hsrm.objectify.reconstruction.LuminancePlane;
+import de.hsrm.objectify.reconstruction.Preprocessor;
+
+/**
+ * Ambient subtraction and foreground segmentation of the captures, as separate steps on
+ * a single capture and as the fused pass of {@link Preprocessor} over all captures. The
+ * separate steps work in place, so every invocation first restores its input from the
+ * scene, which is included in the measured time.
+ */
+public class PreprocessingBenchmark extends SceneBenchmark {
+    /* capture ReconstructionService segments the foreground from */
+    private static final int MASK_IMAGE = 2;
+    private LuminancePlane mImage;
+    private Preprocessor mPreprocessor;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        createScene();
+        mImage = new LuminancePlane(size, size);
+        mPreprocessor = new Preprocessor(size, size, scene.getNumImages(), MASK_IMAGE);
+    }
+
+    @Benchmark
+    public LuminancePlane subtract() {
+        System.arraycopy(scene.images[1].data, 0, mImage.data, 0, mImage.data.length);
+        mImage.subtract(scene.images[0]);
+        return mImage;
+    }
+
+    @Benchmark
+    public LuminancePlane binarize() {
+        LuminancePlane capture = scene.images[MASK_IMAGE + 1];
+        System.arraycopy(capture.data, 0, mImage.data, 0, mImage.data.length);
+        mImage.binarize();
+        return mImage;
+    }
+
+    @Benchmark
+    public int[] preprocess() {
+        mPreprocessor.setAmbient(scene.images[0]);
+        for (int k = 0; k < scene.getNumImages(); k++) {
+            mPreprocessor.addImage(k, scene.images[k + 1]);
+        }
+        return mPreprocessor.createMask();
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Objectify. Copyright (c) 2011-2016. Kai Wolf. All rights reserved.
+ * Redistribution and use in source form with or without modification is not permitted.
+ */
+
+package de.hsrm.objectify.benchmark;
+
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Common setup of the benchmarks of one pipeline stage. Every stage is measured on both
+ * synthetic shapes at several square image sizes, which shows how its cost scales with
+ * the number of pixels.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public abstract class SceneBenchmark {
+    @Param({"128", "256", "512"})
+    public int size;
+    @Param({SyntheticScene.SPHERE, SyntheticScene.WAVES})
+    public String shape;
+    protected SyntheticScene scene;
+
+    /**
+     * Has to be called first by the trial setup of every benchmark
+     */
+    protected void createScene() {
+        scene = new SyntheticScene(shape, size, size);
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Objectify. Copyright (c) 2011-2016. Kai Wolf. All rights reserved.
+ * Redistribution and use in source form with or without modification is not permitted.
+ */
+
+package de.hsrm.objectify.benchmark;
+
+import de.hsrm.objectify.reconstruction.CalibratedNormalSolver;
+import de.hsrm.objectify.reconstruction.LuminancePlane;
+import de.hsrm.objectify.reconstruction.NormalEncoder;
+import de.hsrm.objectify.reconstruction.PixelUtils;
+import de.hsrm.objectify.reconstruction.RowBands;
+
+/**
+ * Photometric stereo input rendered from a known surface, so every stage of the
+ * reconstruction can be fed without a camera. A Lambertian surface of constant albedo is
+ * lit from {@link CalibratedNormalSolver#LIGHT_DIRECTIONS}, on top of a constant ambient
+ * light.
+ * <p/>
+ * The sphere covers the center of the image and leaves a dark background, like a face in
+ * front of the display. The waves cover the whole image with two bumps and two dents of
+ * a sine surface that is zero on the image border, so the integrators get a nonzero
+ * right-hand side across the whole image.
+ */
+public class SyntheticScene {
+    public static final String SPHERE = "sphere";
+    public static final String WAVES = "waves";
+    private static final int AMBIENT = 16;
+    private static final int ALBEDO = 200;
+    /* steepest slope of the waves */
+    private static final float WAVES_SLOPE = 0.5f;
+
+    public final int width;
+    public final int height;
+    /* heights of the surface */
+    public final float[] heights;
+    /* pixels covered by the surface */
+    public final boolean[] foreground;
+    /* captures, the ambient image first, followed by one per light */
+    public final LuminancePlane[] images;
+
+    /**
+     * @param shape {@link #SPHERE} or {@link #WAVES}
+     */
+    public SyntheticScene(String shape, int width, int height) {
+        this.width = width;
+        this.height = height;
+        heights = new float[width * height];
+        foreground = new boolean[width * height];
+        images = new LuminancePlane[CalibratedNormalSolver.LIGHT_DIRECTIONS.length + 1];
+        for (int k = 0; k < images.length; k++) {
+            images[k] = new LuminancePlane(width, height);
+        }
+
+        boolean sphere = SPHERE.equals(shape);
+        if (!sphere && !WAVES.equals(shape)) {
+            throw new IllegalArgumentException("Unknown shape " + shape);
+        }
+        float radius = 0.4f * Math.min(width, height);
+        double kx = 2.0 * Math.PI / (width - 1);
+        double ky = 2.0 * Math.PI / (height - 1);
+        double amplitude = WAVES_SLOPE / Math.max(kx, ky);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int i = y * width + x;
+                images[0].data[i] = (byte) AMBIENT;
+
+                /* normal (x right, y down, z towards the camera) */
+                float nx, ny, nz;
+                if (sphere) {
+                    float dx = (x - 0.5f * width) / radius;
+                    float dy = (y - 0.5f * height) / radius;
+                    float r2 = dx * dx + dy * dy;
+                    if (r2 >= 1.0f) {
+                        for (int k = 1; k < images.length; k++) {
+                            images[k].data[i] = (byte) AMBIENT;
+                        }
+                        continue;
+                    }
+                    nz = (float) Math.sqrt(1.0f - r2);
+                    nx = dx;
+                    ny = dy;
+                    heights[i] = radius * nz;
+                } else {
+                    /* one period of sin(kx x) sin(ky y) across the image */
+                    double sx = Math.sin(kx * x);
+                    double sy = Math.sin(ky * y);
+                    float dx = (float) (amplitude * kx * Math.cos(kx * x) * sy);
+                    float dy = (float) (amplitude * ky * sx * Math.cos(ky * y));
+                    float length = (float) Math.sqrt(dx * dx + dy * dy + 1.0f);
+                    nx = -dx / length;
+                    ny = -dy / length;
+                    nz = 1.0f / length;
+                    heights[i] = (float) (amplitude * sx * sy);
+                }
+                foreground[i] = true;
+
+                for (int k = 0; k < CalibratedNormalSolver.LIGHT_DIRECTIONS.length; k++) {
+                    float[] l = CalibratedNormalSolver.LIGHT_DIRECTIONS[k];
+                    float shading = (nx * l[0] + ny * l[1] + nz * l[2])
+                        / (float) Math.sqrt(l[0] * l[0] + l[1] * l[1] + l[2] * l[2]);
+                    int value = AMBIENT + (int) (ALBEDO * Math.max(shading, 0.0f));
+                    images[k + 1].data[i] = (byte) Math.min(value, 255);
+                }
+            }
+        }
+    }
+
+    public int getNumImages() {
+        return CalibratedNormalSolver.LIGHT_DIRECTIONS.length;
+    }
+
+    /**
+     * @return the captures without the ambient light, as planar intensities for the
+     * normal solvers. The value of image k at pixel i is stored at
+     * {@code k * width * height + i}
+     */
+    public float[] getIntensities() {
+        int pixels = width * height;
+        float[] intensities = new float[getNumImages() * pixels];
+        for (int k = 0; k < getNumImages(); k++) {
+            LuminancePlane image = images[k + 1].copy();
+            image.subtract(images[0]);
+            for (int i = 0; i < pixels; i++) {
+                intensities[k * pixels + i] = image.get(i);
+            }
+        }
+
+        return intensities;
+    }
+
+    /**
+     * @return the foreground as the mask the normal encoding takes, white and black ARGB
+     */
+    public int[] getMask() {
+        int[] mask = new int[width * height];
+        for (int i = 0; i < mask.length; i++) {
+            mask[i] = PixelUtils.gray(foreground[i] ? 255 : 0);
+        }
+
+        return mask;
+    }
+
+    /**
+     * @return the normals solved with the known light directions and encoded like
+     * compute_normals, as taken by the heightfield integrators
+     */
+    public float[] getEncodedNormals(RowBands bands) {
+        int pixels = width * height;
+        float[] rawNormals = new float[4 * pixels];
+        new CalibratedNormalSolver(CalibratedNormalSolver.LIGHT_DIRECTIONS)
+            .solve(getIntensities(), pixels, pixels, rawNormals, 0);
+        float[] normals = new float[4 * pixels];
+        new NormalEncoder(bands).encode(rawNormals, getMask(), width, height, normals);
+
+        return normals;
+    }
+}